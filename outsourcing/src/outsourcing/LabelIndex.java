@@ -0,0 +1,244 @@
+package outsourcing;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import outsourcing.processtree.Node;
+
+/**
+ * Inverted index from labels to the processes containing them
+ *
+ * For each label id (see LabelDictionary), the posting list stores the processes containing the label
+ * together with the number of nodes carrying the label. Processes are identified by their position
+ * in the repository.
+ *
+ * Used to determine the label overlap of a consumer with all providers without comparing
+ * the consumer with each provider. The time of a query is proportional to the length of the posting lists
+ * of the labels of the consumer.
+ *
+ * Not thread-safe. ProcessRepository synchronizes the access.
+ */
+class LabelIndex {
+
+	/**
+	 * Result of a query: the processes sharing at least the requested number of labels with the query
+	 */
+	static class Candidates {
+		// positions of the processes, ascending
+		final int[] processes;
+		// overlap[i] is the label overlap of processes[i]
+		final int[] overlap;
+
+		Candidates(int[] processes, int[] overlap) {
+			this.processes = processes;
+			this.overlap = overlap;
+		}
+
+		int size() {
+			return processes.length;
+		}
+	}
+
+	// posting lists indexed by label id. Processes are appended in ascending order.
+	private int[][] postingProcesses = new int[16][];
+	private int[][] postingCounts = new int[16][];
+	private int[] postingSize = new int[16];
+
+	private int processCount = 0;
+
+	// accumulated overlap per process. Only the entries listed in touched are != 0 during a query.
+	private int[] overlapScratch = new int[16];
+	private int[] touched = new int[16];
+
+	/**
+	 * Adds the next process. Its position is the number of processes added before.
+	 *
+	 * @return the position of the process
+	 */
+	int add(Set<Node> basicNodes) {
+		int process = processCount;
+		processCount++;
+		if (overlapScratch.length < processCount) {
+			overlapScratch = Arrays.copyOf(overlapScratch, 2*processCount);
+			touched = new int[2*processCount];
+		}
+
+		int[] labels = sortedLabelIds(basicNodes);
+		for (int start = 0; start < labels.length; ) {
+			int end = runEnd(labels, start);
+			if (labels[start] != Node.NO_LABEL_ID) {
+				append(labels[start], process, end - start);
+			}
+			start = end;
+		}
+		return process;
+	}
+
+	private void append(int label, int process, int count) {
+		if (label >= postingSize.length) {
+			int newLength = Math.max(label+1, 2*postingSize.length);
+			postingProcesses = Arrays.copyOf(postingProcesses, newLength);
+			postingCounts = Arrays.copyOf(postingCounts, newLength);
+			postingSize = Arrays.copyOf(postingSize, newLength);
+		}
+		int size = postingSize[label];
+		if (size == 0) {
+			postingProcesses[label] = new int[4];
+			postingCounts[label] = new int[4];
+		} else if (size == postingProcesses[label].length) {
+			postingProcesses[label] = Arrays.copyOf(postingProcesses[label], 2*size);
+			postingCounts[label] = Arrays.copyOf(postingCounts[label], 2*size);
+		}
+		postingProcesses[label][size] = process;
+		postingCounts[label][size] = count;
+		postingSize[label] = size+1;
+	}
+
+	/**
+	 * Determines all processes having a label overlap of at least minOverlap with the given nodes
+	 *
+	 * The overlap is the number of nodes which can be matched: for each shared label, the minimum of the
+	 * number of nodes carrying the label in both processes.
+	 *
+	 * The labels are processed from the rarest to the most frequent one.
+	 * A process first seen when the remaining labels cannot sum up to minOverlap anymore is skipped.
+	 * Thus, the frequent labels only increase the overlap of processes already found.
+	 */
+	Candidates query(Set<Node> basicNodes, int minOverlap) {
+		int[] labels = sortedLabelIds(basicNodes);
+
+		// distinct labels with their count, known to the index
+		int distinct = 0;
+		int[] runLabel = new int[labels.length];
+		int[] runCount = new int[labels.length];
+		int remaining = 0;
+		for (int start = 0; start < labels.length; ) {
+			int end = runEnd(labels, start);
+			int label = labels[start];
+			if ((label != Node.NO_LABEL_ID) && (label < postingSize.length) && (postingSize[label] > 0)) {
+				runLabel[distinct] = label;
+				runCount[distinct] = end - start;
+				remaining += end - start;
+				distinct++;
+			}
+			start = end;
+		}
+		sortByPostingSize(runLabel, runCount, distinct);
+
+		int touchedCount = 0;
+		for (int r = 0; r < distinct; r++) {
+			int label = runLabel[r];
+			int count = runCount[r];
+			int[] processes = postingProcesses[label];
+			int[] counts = postingCounts[label];
+			int size = postingSize[label];
+			boolean newProcessesPossible = (remaining >= minOverlap);
+			for (int i = 0; i < size; i++) {
+				int p = processes[i];
+				if (overlapScratch[p] == 0) {
+					if (!newProcessesPossible) {
+						continue;
+					}
+					touched[touchedCount++] = p;
+				}
+				overlapScratch[p] += Math.min(count, counts[i]);
+			}
+			remaining -= count;
+		}
+
+		Arrays.sort(touched, 0, touchedCount);
+		int resultCount = 0;
+		for (int i = 0; i < touchedCount; i++) {
+			if (overlapScratch[touched[i]] >= minOverlap) {
+				resultCount++;
+			}
+		}
+		int[] resProcesses = new int[resultCount];
+		int[] resOverlap = new int[resultCount];
+		int j = 0;
+		for (int i = 0; i < touchedCount; i++) {
+			int p = touched[i];
+			if (overlapScratch[p] >= minOverlap) {
+				resProcesses[j] = p;
+				resOverlap[j] = overlapScratch[p];
+				j++;
+			}
+			// reset for the next query
+			overlapScratch[p] = 0;
+		}
+		return new Candidates(resProcesses, resOverlap);
+	}
+
+	/**
+	 * Determines the label overlap of two processes directly, see query()
+	 */
+	static int overlap(Set<Node> basicNodes1, Set<Node> basicNodes2) {
+		int[] labels1 = sortedLabelIds(basicNodes1);
+		int[] labels2 = sortedLabelIds(basicNodes2);
+		int overlap = 0;
+		int i = 0;
+		int j = 0;
+		while ((i < labels1.length) && (j < labels2.length)) {
+			int end1 = runEnd(labels1, i);
+			int end2 = runEnd(labels2, j);
+			if (labels1[i] < labels2[j]) {
+				i = end1;
+			} else if (labels1[i] > labels2[j]) {
+				j = end2;
+			} else {
+				if (labels1[i] != Node.NO_LABEL_ID) {
+					overlap += Math.min(end1 - i, end2 - j);
+				}
+				i = end1;
+				j = end2;
+			}
+		}
+		return overlap;
+	}
+
+	int getProcessCount() {
+		return processCount;
+	}
+
+	/**
+	 * Sorts the runs by ascending length of their posting list
+	 */
+	private void sortByPostingSize(int[] runLabel, int[] runCount, int n) {
+		// key: posting size in the upper half, position of the run in the lower half
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = (((long) postingSize[runLabel[i]]) << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] label = Arrays.copyOf(runLabel, n);
+		int[] count = Arrays.copyOf(runCount, n);
+		for (int i = 0; i < n; i++) {
+			int r = (int) keys[i];
+			runLabel[i] = label[r];
+			runCount[i] = count[r];
+		}
+	}
+
+	private static int[] sortedLabelIds(Set<Node> basicNodes) {
+		int[] labels = new int[basicNodes.size()];
+		int i = 0;
+		for (Node n: basicNodes) {
+			labels[i] = n.getLabelId();
+			i++;
+		}
+		Arrays.sort(labels);
+		return labels;
+	}
+
+	/**
+	 * @return the end (exclusive) of the run of equal values starting at start
+	 */
+	private static int runEnd(int[] sorted, int start) {
+		int end = start + 1;
+		while ((end < sorted.length) && (sorted[end] == sorted[start])) {
+			end++;
+		}
+		return end;
+	}
+
+}
@@ -1,6 +1,18 @@
 package outsourcing;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import org.apache.log4j.BasicConfigurator;
@@ -9,9 +21,10 @@ import org.apache.log4j.Logger;
 import org.eclipse.bpel.model.resource.BPELResource;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 
+import outsourcing.ProcessRepository.MatchResult;
 import outsourcing.processtree.ProcessTree;
+import outsourcing.processtree.ProcessTreeFile;
 import outsourcing.processtree.Comparator.MetricResult;
 import outsourcing.processtree.projections.ActionList;
 import outsourcing.processtree.projections.Projections;
@@ -20,6 +33,11 @@ public class Main {
 
 	private static Logger logger = Logger.getLogger(Main.class);
 
+	// the WSDL files imported by the processes are parsed once for all loaded processes.
+	// JVM-wide state: the cache keeps every parsed WSDL file until clear() is called.
+	// ProcessRepository may be given its own cache instead.
+	private final static WsdlCache wsdlCache = new WsdlCache();
+
 	/**
 	 * Starts the analysis and prints out the results on the console
 	 *
@@ -30,6 +48,23 @@ public class Main {
 	 * @throws Exception
 	 */
 	public void analyzeProcesses(URI process1, URI process2, File projection1, File projection2) throws Exception {
+		analyzeProcesses(process1, process2, projection1, projection2, null);
+	}
+
+	/**
+	 * Starts the analysis and prints out the results on the console
+	 *
+	 * If the result cache contains the result for the given files, the result is printed without loading the processes.
+	 * Otherwise, the result is added to the cache.
+	 *
+	 * @param process1 First process to load
+	 * @param process2 Second process to load
+	 * @param projection1 the file containing the projections for the first process. May be null.
+	 * @param projection2 the file containing the projections for the second process. May be null.
+	 * @param cache the result cache. May be null.
+	 * @throws Exception
+	 */
+	public void analyzeProcesses(URI process1, URI process2, File projection1, File projection2, ResultCache cache) throws Exception {
 	    // do default log4j initialization
 		// see http://logging.apache.org/log4j/1.2/manual.html
 		BasicConfigurator.configure();
@@ -40,57 +75,71 @@ public class Main {
 
 		// assumption: in the current directory, there are p1.bpel and p2.bpel
 
-		/** load processes and generate process trees **/
-		BPELResource p1, p2;
-		ProcessTree pt1, pt2;
-		try {
-			p1 = loadProcess(process1);
-			pt1 = new ProcessTree(p1);
-		} catch (Exception e) {
-			//logger.error("Could not open first process", e);
-			logger.error(String.format("Could not open first process. Reason: %s", e.getLocalizedMessage()));
-			return;
+		byte[] cacheKey = null;
+		if ((cache != null) && process1.isFile() && process2.isFile()) {
+			cacheKey = ResultCache.key(new File(process1.toFileString()), new File(process2.toFileString()), projection1, projection2);
+			ResultCache.Entry cached = cache.get(cacheKey);
+			if (cached != null) {
+				System.out.println("Cached result:");
+				printResults(cached);
+				return;
+			}
 		}
 
+		/**
+		 * load processes, generate process trees, perform the projections and determine the process types
+		 *
+		 * The two processes are independent until they are compared. Thus, the second process is handled on another thread.
+		 **/
+		Pipeline pipeline1 = new Pipeline("first", process1, projection1);
+		// as before, the projections are only performed if there is a projection for the first process
+		Pipeline pipeline2 = new Pipeline("second", process2, (projection1 != null) ? projection2 : null);
+		Exception failure1 = null;
+		Throwable failure2 = null;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
 		try {
-			p2 = loadProcess(process2);
-			pt2 = new ProcessTree(p2);
-		} catch (Exception e) {
-			logger.error(String.format("Could not open second process. Reason: %s", e.getLocalizedMessage()));
+			Future<?> future2 = executor.submit(pipeline2);
+			try {
+				pipeline1.call();
+			} catch (Exception e) {
+				// thrown after the second pipeline has finished
+				failure1 = e;
+			}
+			try {
+				future2.get();
+			} catch (ExecutionException e) {
+				failure2 = e.getCause();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// an exception of the projections must not hide a load error of the other pipeline: the load errors are
+		// reported in the order of the pipelines first, then the exception of the first failed pipeline is thrown
+		boolean loaded1 = pipeline1.reportError();
+		boolean loaded2 = pipeline2.reportError();
+		if (failure1 != null) {
+			throw failure1;
+		}
+		if (failure2 instanceof Exception) {
+			throw (Exception) failure2;
+		} else if (failure2 != null) {
+			throw new RuntimeException(failure2);
+		}
+		if (!loaded1 || !loaded2) {
 			return;
 		}
+		ProcessTree pt1 = pipeline1.pt;
+		ProcessTree pt2 = pipeline2.pt;
 
 		if (projection1 != null) {
 			System.out.println("Before projections:");
 			System.out.println("pt1:");
-			System.out.println(pt1.toString());
+			System.out.println(pipeline1.beforeProjections);
 			System.out.println("pt2:");
-			System.out.println(pt2.toString());
+			System.out.println(pipeline2.beforeProjections);
 		}
 
-		/**
-		 * load projections
-		 *
-		 * projections are loaded into an ActionList. The "real" projections are done in class Projections
-		 *
-		 **/
-		ActionList al1 = null, al2 = null;
-		if (projection1 != null) {
-			// could throw IOException
-			al1 = new ActionList(projection1, p1);
-			al2 = new ActionList(projection2,  p2);
-
-
-			Projections projections1 = new Projections(pt1, al1);
-			projections1.perform();
-
-			Projections projections2 = new Projections(pt2, al2);
-			projections2.perform();
-		}
-
-		pt1.determineProcesType();
-		pt2.determineProcesType();
-
 		if (projection1 != null) {
 			System.out.println("After projections");
 		}
@@ -101,20 +150,246 @@ public class Main {
 
 		/** output matchings **/
 
-		System.out.println(String.format("Match exactly: %s", Boolean.toString(pt1.matchesExactly(pt2))));
+		ResultCache.Entry result = new ResultCache.Entry(pt1.matchesExactly(pt2), pt1.isPluginForProcessTree(pt2), pt2.isPluginForProcessTree(pt1), pt1.getDegreeOfInexactMatching(pt2));
+		printResults(result);
+
+		if (cacheKey != null) {
+			cache.put(cacheKey, result);
+		}
+
+		return;
+	}
+
+	/**
+	 * Loads one process, generates its process tree, performs the projections and determines the process type
+	 *
+	 * Exceptions during loading are kept and reported by reportError(). Exceptions of the projections are thrown.
+	 */
+	private static class Pipeline implements Callable<Void> {
+		private final String side;
+		private final URI process;
+		private final File projection;
+
+		private ProcessTree pt = null;
+		// the process tree before the projections have been performed, null if there is no projection
+		private String beforeProjections = null;
+		private Exception loadError = null;
+
+		Pipeline(String side, URI process, File projection) {
+			this.side = side;
+			this.process = process;
+			this.projection = projection;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			BPELResource p;
+			try {
+				p = loadProcess(process);
+				pt = new ProcessTree(p);
+			} catch (Exception e) {
+				loadError = e;
+				return null;
+			}
+
+			/**
+			 * load projections
+			 *
+			 * projections are loaded into an ActionList. The "real" projections are done in class Projections
+			 *
+			 **/
+			if (projection != null) {
+				beforeProjections = pt.toString();
+
+				// could throw IOException
+				ActionList al = new ActionList(projection, p);
+				Projections projections = new Projections(pt, al);
+				projections.perform();
+			}
+
+			pt.determineProcesType();
+			return null;
+		}
+
+		/**
+		 * @return false if the process could not be loaded. The reason is logged then.
+		 */
+		boolean reportError() {
+			if (loadError == null) {
+				return true;
+			}
+			logger.error(String.format("Could not open %s process. Reason: %s", side, loadError.getLocalizedMessage()));
+			return false;
+		}
+	}
+
+	private static void printResults(ResultCache.Entry result) {
+		System.out.println(String.format("Match exactly: %s", Boolean.toString(result.exact)));
 		// " + '\u22B3' + "
-		System.out.println(String.format("Plugin Matching P1|>P2: %s", Boolean.toString(pt1.isPluginForProcessTree(pt2))));
-		System.out.println(String.format("Plugin Matching P2|>P1: %s", Boolean.toString(pt2.isPluginForProcessTree(pt1))));
+		System.out.println(String.format("Plugin Matching P1|>P2: %s", Boolean.toString(result.p1PluginForP2)));
+		System.out.println(String.format("Plugin Matching P2|>P1: %s", Boolean.toString(result.p2PluginForP1)));
 
-		MetricResult degreeLoopMatching = pt1.getDegreeOfInexactMatching(pt2);
+		MetricResult degreeLoopMatching = result.degree;
 
 		// we only print out M2 as this metrics is described in the paper
 		// M1 has been used in a previous paper
 		System.out.println(String.format("Degree of loop sensitive matching (P1" + '\u2293' + "lP2): %f", degreeLoopMatching.M2));
 		System.out.println(String.format("Degree of loop insensitive matching (P1" + '\u2293' + "lP2): %f", degreeLoopMatching.MI2));
 		// U+2293 (8851) or U+220F (8719)
+	}
 
-		return;
+	/**
+	 * Matches a consumer against a set of providers and prints out the ranked results on the console
+	 *
+	 * @param consumer the consumer process
+	 * @param providers the provider processes
+	 * @throws Exception
+	 */
+	public void analyzeRepository(URI consumer, List<URI> providers) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.INFO);
+
+		ProcessTree ptc;
+		try {
+			ptc = new ProcessTree(loadProcess(consumer));
+		} catch (Exception e) {
+			logger.error(String.format("Could not open consumer process. Reason: %s", e.getLocalizedMessage()));
+			return;
+		}
+		ptc.determineProcesType();
+
+		ProcessRepository repository = new ProcessRepository();
+		repository.addAll(providers);
+
+		List<MatchResult> results = repository.match(ptc);
+		repository.shutdown();
+
+		System.out.println(String.format("Ranking of %d providers for %s:", results.size(), consumer));
+		int rank = 1;
+		for (MatchResult r: results) {
+			System.out.println(String.format("%d. %s", rank, r));
+			rank++;
+		}
+	}
+
+	/**
+	 * Computes the degree of inexact matching of all pairs of the given processes
+	 *
+	 * @param processes the processes to compare
+	 * @param output the file to write the matrix to. CSV if the name ends with ".csv", binary otherwise (see SimilarityMatrixWriter).
+	 * @throws Exception
+	 */
+	public void analyzeSimilarityMatrix(List<URI> processes, File output) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		ProcessRepository repository = new ProcessRepository();
+		repository.addAll(processes);
+
+		if (output.getName().endsWith(".csv")) {
+			Writer w = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+			try {
+				repository.computeSimilarityMatrix(SimilarityMatrixWriter.csv(w));
+			} finally {
+				w.close();
+			}
+		} else {
+			OutputStream os = new FileOutputStream(output);
+			try {
+				repository.computeSimilarityMatrix(SimilarityMatrixWriter.binary(os));
+			} finally {
+				os.close();
+			}
+		}
+		repository.shutdown();
+		logger.warn(String.format("Similarity matrix of %d processes written to %s", repository.size(), output));
+	}
+
+	/**
+	 * Compares matchSimilar() (RelationLSHIndex) with match() (all providers) of a ProcessRepository
+	 *
+	 * Each process is matched against the repository of all processes. A provider is relevant if
+	 * M2 of the consumer and the provider is at least minM2. The recall is the fraction of the
+	 * relevant providers found by matchSimilar().
+	 *
+	 * @param processes the processes forming the repository and used as consumers
+	 * @param minM2 the minimal M2 of a relevant provider
+	 * @throws Exception
+	 */
+	public void evaluateSimilarityIndex(List<URI> processes, double minM2) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		ProcessRepository repository = new ProcessRepository();
+		repository.addAll(processes);
+		int n = repository.size();
+
+		long bruteForceTime = 0;
+		long indexTime = 0;
+		int relevant = 0;
+		int found = 0;
+		int candidates = 0;
+		for (int i = 0; i < n; i++) {
+			ProcessTree consumer = repository.getProvider(i);
+
+			long start = System.nanoTime();
+			List<MatchResult> all = repository.match(consumer);
+			bruteForceTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			List<MatchResult> similar = repository.matchSimilar(consumer);
+			indexTime += System.nanoTime() - start;
+			candidates += similar.size();
+
+			Set<String> similarNames = new HashSet<String>();
+			for (MatchResult r: similar) {
+				similarNames.add(r.name);
+			}
+			for (MatchResult r: all) {
+				if (r.degree.M2 >= minM2) {
+					relevant++;
+					if (similarNames.contains(r.name)) {
+						found++;
+					} else {
+						logger.info(String.format("%s: %s (M2=%f) not found", repository.getName(i), r.name, r.degree.M2));
+					}
+				}
+			}
+		}
+		repository.shutdown();
+
+		System.out.println(String.format("%d processes, %d relevant pairs (M2 >= %f)", n, relevant, minM2));
+		System.out.println(String.format("Recall: %d/%d = %f", found, relevant, (relevant == 0) ? 1.0 : (double) found / relevant));
+		System.out.println(String.format("Compared pairs: %d of %d", candidates, n * n));
+		System.out.println(String.format("Time: brute force %d ms, index %d ms", bruteForceTime / 1000000, indexTime / 1000000));
+	}
+
+	/**
+	 * Writes the process trees of the given processes (see ProcessTreeFile)
+	 *
+	 * The trees can be added to a ProcessRepository afterwards without loading the BPEL processes again.
+	 *
+	 * @param processes the processes to convert
+	 * @param directory the directory to write the trees to. The name of each tree is the name of the process with the extension ".pt".
+	 * @throws Exception
+	 */
+	public void writeProcessTrees(List<URI> processes, File directory) throws Exception {
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		for (URI uri: processes) {
+			ProcessTree pt;
+			try {
+				pt = new ProcessTree(loadProcess(uri));
+			} catch (Exception e) {
+				logger.error(String.format("Could not open %s. Reason: %s", uri, e.getLocalizedMessage()));
+				continue;
+			}
+			pt.determineProcesType();
+			File output = new File(directory, uri.trimFileExtension().lastSegment() + ".pt");
+			ProcessTreeFile.write(pt, output);
+			logger.info(String.format("%s written to %s", uri, output));
+		}
 	}
 
 	/**
@@ -122,9 +397,23 @@ public class Main {
 	 * @param fileName
 	 * @return
 	 */
-	private static BPELResource loadProcess(URI uri) {
-		ResourceSet resourceSet = new ResourceSetImpl();
+	static BPELResource loadProcess(URI uri) {
+		return loadProcess(uri, wsdlCache);
+	}
+
+	/**
+	 * Load a BPEL process, taking the imported WSDL files from the given cache
+	 */
+	static BPELResource loadProcess(URI uri, WsdlCache cache) {
+		ResourceSet resourceSet = cache.createResourceSet();
 		return (BPELResource) resourceSet.getResource(uri, true);
 	}
 
+	/**
+	 * @return the cache of the WSDL files used by loadProcess()
+	 */
+	public static WsdlCache getWsdlCache() {
+		return wsdlCache;
+	}
+
 }
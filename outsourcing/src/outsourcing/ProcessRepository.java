@@ -0,0 +1,653 @@
+package outsourcing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.eclipse.bpel.model.resource.BPELResource;
+import org.eclipse.emf.common.util.URI;
+
+import outsourcing.processtree.BPELStreamReader;
+import outsourcing.processtree.Comparator;
+import outsourcing.processtree.Comparator.MetricResult;
+import outsourcing.processtree.ProcessTree;
+import outsourcing.processtree.ProcessTreeFile;
+
+/**
+ * A repository of provider processes
+ *
+ * The providers are loaded once. Afterwards, a consumer process can be matched against all providers.
+ * The providers are matched in parallel, the result is ranked (see RANKING).
+ *
+ * An inverted index (LabelIndex) determines the number of labels a provider shares with the consumer.
+ * Providers not reaching a requested minimum overlap are not compared at all.
+ *
+ * A second index (RelationLSHIndex) hashes the relations of the providers. matchSimilar() only compares the
+ * providers whose relations are similar to the ones of the consumer.
+ *
+ * The providers are frozen when they are added (see ProcessTree.freeze()). Projections have to be performed before.
+ */
+public class ProcessRepository {
+	private static Logger logger = Logger.getLogger(ProcessRepository.class);
+
+	/**
+	 * The result of matching the consumer against one provider
+	 */
+	public static class MatchResult {
+		public final String name;
+		public final ProcessTree provider;
+
+		// consumer and provider match exactly
+		public boolean exact;
+
+		// the provider is a plugin for the consumer (provider |> consumer)
+		public boolean providerIsPlugin;
+
+		// the consumer is a plugin for the provider (consumer |> provider)
+		public boolean consumerIsPlugin;
+
+		// degree of inexact matching (consumer, provider)
+		public MetricResult degree;
+
+		// number of nodes of the consumer having a node with an equal label in the provider (see LabelIndex)
+		public final int labelOverlap;
+
+		// position of the provider in the repository
+		private final int position;
+
+		MatchResult(String name, ProcessTree provider, int labelOverlap, int position) {
+			this.name = name;
+			this.provider = provider;
+			this.labelOverlap = labelOverlap;
+			this.position = position;
+		}
+
+		public String toString() {
+			return String.format("%s: exact=%s plugin=%s M2=%f MI2=%f overlap=%d", name, exact, providerIsPlugin, degree.M2, degree.MI2, labelOverlap);
+		}
+	}
+
+	/**
+	 * Best matches first: exact matches, then providers being a plugin for the consumer,
+	 * then by decreasing M2 and MI2. Equally ranked providers keep the order they have been added.
+	 */
+	public final static java.util.Comparator<MatchResult> RANKING = new java.util.Comparator<MatchResult>() {
+		@Override
+		public int compare(MatchResult r1, MatchResult r2) {
+			if (r1.exact != r2.exact) {
+				return r1.exact ? -1 : 1;
+			}
+			if (r1.providerIsPlugin != r2.providerIsPlugin) {
+				return r1.providerIsPlugin ? -1 : 1;
+			}
+			int res = Double.compare(r2.degree.M2, r1.degree.M2);
+			if (res != 0) {
+				return res;
+			}
+			return Double.compare(r2.degree.MI2, r1.degree.MI2);
+		}
+	};
+
+	/**
+	 * Ranking used by matchTopK(): by decreasing MI2, equally ranked providers keep the order they have been added
+	 */
+	public final static java.util.Comparator<MatchResult> RANKING_BY_MI2 = new java.util.Comparator<MatchResult>() {
+		@Override
+		public int compare(MatchResult r1, MatchResult r2) {
+			int res = Double.compare(r2.degree.MI2, r1.degree.MI2);
+			if (res != 0) {
+				return res;
+			}
+			return (r1.position < r2.position) ? -1 : ((r1.position == r2.position) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * A task executed for each index of a range
+	 */
+	private interface IndexedTask {
+		void run(int i);
+	}
+
+	/**
+	 * The k best results seen so far according to RANKING_BY_MI2
+	 */
+	private static class TopK {
+		private final int k;
+
+		// the worst result is the head
+		private final PriorityQueue<MatchResult> queue;
+
+		TopK(int k) {
+			this.k = k;
+			this.queue = new PriorityQueue<MatchResult>(k+1, Collections.reverseOrder(RANKING_BY_MI2));
+		}
+
+		synchronized void offer(MatchResult r) {
+			queue.add(r);
+			if (queue.size() > k) {
+				queue.poll();
+			}
+		}
+
+		/**
+		 * @return the MI2 a result has to reach to get into the top k, NEGATIVE_INFINITY as long as there are less than k results
+		 */
+		synchronized double getThreshold() {
+			if (queue.size() < k) {
+				return Double.NEGATIVE_INFINITY;
+			} else {
+				return queue.peek().degree.MI2;
+			}
+		}
+
+		synchronized List<MatchResult> getResults() {
+			List<MatchResult> res = new ArrayList<MatchResult>(queue);
+			Collections.sort(res, RANKING_BY_MI2);
+			return res;
+		}
+	}
+
+	// number of rows and columns of the tiles of computeSimilarityMatrix()
+	private final static int TILE_SIZE = 32;
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<ProcessTree> providers = new ArrayList<ProcessTree>();
+	private final LabelIndex labelIndex = new LabelIndex();
+	private final RelationLSHIndex relationIndex = new RelationLSHIndex();
+
+	private final boolean implicitProcessType;
+	private final WsdlCache wsdlCache;
+
+	private final int threadCount;
+	private ExecutorService executor = null;
+
+	/**
+	 * Creates a repository using one thread per available processor
+	 */
+	public ProcessRepository() {
+		this(false, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param implicitProcessType passed to ProcessTree for the providers loaded by add(URI)
+	 * @param threadCount the number of threads used for matching
+	 */
+	public ProcessRepository(boolean implicitProcessType, int threadCount) {
+		this(implicitProcessType, threadCount, Main.getWsdlCache());
+	}
+
+	/**
+	 * @param implicitProcessType passed to ProcessTree for the providers loaded by add(URI)
+	 * @param threadCount the number of threads used for matching
+	 * @param wsdlCache the cache of the WSDL files imported by the processes loaded by add(URI)
+	 */
+	public ProcessRepository(boolean implicitProcessType, int threadCount, WsdlCache wsdlCache) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount has to be at least 1");
+		}
+		this.implicitProcessType = implicitProcessType;
+		this.threadCount = threadCount;
+		this.wsdlCache = wsdlCache;
+	}
+
+	/**
+	 * Adds a provider. The process type of the provider has to be determined already.
+	 * The provider is frozen (see ProcessTree.freeze()), thus it can be compared by all threads.
+	 */
+	public void add(String name, ProcessTree provider) {
+		if (provider.getProcessType() == null) {
+			throw new IllegalStateException(String.format("Process type of %s has not been determined", name));
+		}
+		provider.freeze();
+		// computed outside the lock: quadratic in the number of nodes
+		int[] signature = RelationLSHIndex.signature(provider);
+		synchronized (this) {
+			names.add(name);
+			providers.add(provider);
+			int position = labelIndex.add(provider.getAllBasicNonSilentActivies());
+			relationIndex.add(position, signature);
+		}
+	}
+
+	/**
+	 * Loads the given process and adds it as provider
+	 */
+	public void add(URI uri) {
+		add(uri.toString(), load(uri));
+	}
+
+	/**
+	 * Loads the given process and determines its process type
+	 */
+	private ProcessTree load(URI uri) {
+		BPELResource r = Main.loadProcess(uri, wsdlCache);
+		ProcessTree pt = new ProcessTree(r, implicitProcessType);
+		pt.determineProcesType();
+		return pt;
+	}
+
+	/**
+	 * Reads the given tree written by ProcessTreeFile and adds it as provider. The BPEL model is not loaded.
+	 */
+	public void add(File processTreeFile) throws IOException {
+		add(processTreeFile.getPath(), ProcessTreeFile.read(processTreeFile));
+	}
+
+	/**
+	 * Reads the given BPEL file by BPELStreamReader and adds it as provider. The EMF BPEL model is not loaded.
+	 */
+	public void addBPEL(File bpelFile) throws IOException {
+		ProcessTree pt = BPELStreamReader.read(bpelFile, implicitProcessType);
+		pt.determineProcesType();
+		add(bpelFile.getPath(), pt);
+	}
+
+	/**
+	 * Loads the given processes in parallel and adds them as providers in the given order
+	 *
+	 * Processes which cannot be loaded are skipped
+	 *
+	 * @return the number of processes added
+	 */
+	public int addAll(final List<URI> uris) throws InterruptedException, ExecutionException {
+		final ProcessTree[] trees = new ProcessTree[uris.size()];
+		forEach(uris.size(), new IndexedTask() {
+			@Override
+			public void run(int i) {
+				URI uri = uris.get(i);
+				try {
+					trees[i] = load(uri);
+				} catch (Exception e) {
+					logger.error(String.format("Could not open %s. Reason: %s", uri, e.getLocalizedMessage()));
+				}
+			}
+		});
+
+		int count = 0;
+		for (int i = 0; i < trees.length; i++) {
+			if (trees[i] != null) {
+				add(uris.get(i).toString(), trees[i]);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized int size() {
+		return providers.size();
+	}
+
+	/**
+	 * @return the name of the provider at the given position (in the order the providers have been added)
+	 */
+	public synchronized String getName(int position) {
+		return names.get(position);
+	}
+
+	/**
+	 * @return the provider at the given position (in the order the providers have been added)
+	 */
+	public synchronized ProcessTree getProvider(int position) {
+		return providers.get(position);
+	}
+
+	/**
+	 * Matches the consumer against all providers in parallel
+	 *
+	 * @param consumer the consumer process. Its process type has to be determined already.
+	 * @return the results for all providers, best match first (see RANKING)
+	 */
+	public List<MatchResult> match(ProcessTree consumer) throws InterruptedException, ExecutionException {
+		return match(consumer, 0);
+	}
+
+	/**
+	 * Matches the consumer against all providers sharing at least minOverlap labels with the consumer
+	 *
+	 * @param consumer the consumer process. Its process type has to be determined already.
+	 * @param minOverlap the minimal label overlap (see MatchResult.labelOverlap). 0 matches all providers.
+	 * @return the results for the matched providers, best match first (see RANKING)
+	 */
+	public List<MatchResult> match(final ProcessTree consumer, int minOverlap) throws InterruptedException, ExecutionException {
+		final List<MatchResult> candidates = getCandidates(consumer, minOverlap);
+
+		forEach(candidates.size(), new IndexedTask() {
+			@Override
+			public void run(int i) {
+				match(consumer, candidates.get(i));
+			}
+		});
+
+		// the sort is stable: equally ranked providers keep the order they have been added
+		List<MatchResult> results = new ArrayList<MatchResult>(candidates);
+		Collections.sort(results, RANKING);
+		return results;
+	}
+
+	/**
+	 * Matches the consumer against the providers whose relations are similar to the ones of the consumer
+	 *
+	 * The candidates are determined by RelationLSHIndex without considering the other providers.
+	 * A provider whose set of relations has a Jaccard similarity of s with the one of the consumer
+	 * is a candidate with probability 1 - (1 - s^4)^16. Thus, providers with a high M2 are found with a high
+	 * probability, but not for sure. The results are the same as the ones of match() for these providers.
+	 *
+	 * @param consumer the consumer process. Its process type has to be determined already.
+	 * @return the results for the candidates, best match first (see RANKING)
+	 */
+	public List<MatchResult> matchSimilar(final ProcessTree consumer) throws InterruptedException, ExecutionException {
+		final List<MatchResult> candidates = getSimilarCandidates(consumer, RelationLSHIndex.signature(consumer));
+
+		forEach(candidates.size(), new IndexedTask() {
+			@Override
+			public void run(int i) {
+				match(consumer, candidates.get(i));
+			}
+		});
+
+		List<MatchResult> results = new ArrayList<MatchResult>(candidates);
+		Collections.sort(results, RANKING);
+		return results;
+	}
+
+	/**
+	 * Determines the k providers with the highest MI2 (see RANKING_BY_MI2)
+	 *
+	 * The result is the same as taking the first k results of match() sorted by RANKING_BY_MI2, but most
+	 * providers are not compared completely:
+	 *  1. For each provider, an upper bound of MI2 is determined from the number of matching nodes
+	 *     and the relations of the nodes without matching node (Comparator.getUpperBoundOfMI2()).
+	 *  2. The providers are compared in the order of decreasing bound. Providers whose bound is below the
+	 *     k-th best MI2 found so far are skipped. During the comparison, the bound is refined and
+	 *     the comparison is aborted as soon as it drops below the k-th best MI2.
+	 *
+	 * @param consumer the consumer process. Its process type has to be determined already.
+	 * @param k the number of results
+	 * @param minOverlap the minimal label overlap (see MatchResult.labelOverlap). 0 considers all providers.
+	 * @return at most k results, best match first
+	 */
+	public List<MatchResult> matchTopK(final ProcessTree consumer, int k, int minOverlap) throws InterruptedException, ExecutionException {
+		if (k < 1) {
+			throw new IllegalArgumentException("k has to be at least 1");
+		}
+		final List<MatchResult> candidates = getCandidates(consumer, minOverlap);
+		int n = candidates.size();
+
+		// 1. upper bounds
+		final Comparator[] comparators = new Comparator[n];
+		final double[] bounds = new double[n];
+		forEach(n, new IndexedTask() {
+			@Override
+			public void run(int i) {
+				comparators[i] = new Comparator(consumer, candidates.get(i).provider);
+				bounds[i] = comparators[i].getUpperBoundOfMI2();
+			}
+		});
+
+		// providers with a high bound first: the threshold rises early
+		final int[] order = sortByBoundDescending(bounds);
+
+		// 2. comparison
+		final TopK top = new TopK(k);
+		forEach(n, new IndexedTask() {
+			@Override
+			public void run(int idx) {
+				int i = order[idx];
+				double threshold = top.getThreshold();
+				// strict comparison: a provider with MI2 equal to the threshold may be ranked before the k-th one
+				if (bounds[i] < threshold) {
+					return;
+				}
+				MetricResult degree = comparators[i].getDegreeOfInexactMatching(threshold);
+				// release memory early
+				comparators[i] = null;
+				if (degree != null) {
+					MatchResult res = candidates.get(i);
+					res.degree = degree;
+					top.offer(res);
+				}
+			}
+		});
+
+		// 3. remaining properties of the top k
+		List<MatchResult> results = top.getResults();
+		for (MatchResult res: results) {
+			Comparator consumerProvider = new Comparator(consumer, res.provider);
+			res.exact = consumerProvider.matchesExactly();
+			setPluginFlags(consumer, res, consumerProvider);
+		}
+		return results;
+	}
+
+	/**
+	 * Computes the degree of inexact matching of all pairs of providers (including each provider with itself)
+	 *
+	 * The matrix is computed in bands of TILE_SIZE rows. Each band is split into tiles of TILE_SIZE columns,
+	 * which are computed in parallel. Within a tile, the same TILE_SIZE + TILE_SIZE processes are compared,
+	 * which keeps their process types in the cache. A band is written as soon as it is complete.
+	 *
+	 * If both processes have unique labels (ProcessTree.hasUniqueLabels()), the degree of matching is symmetric:
+	 * the correspondence of the nodes is a bijection and reversing a relation keeps (in)equality and multiplicity.
+	 * Then, only (i, j) with i <= j is computed and also written as (j, i). Otherwise, both directions are computed.
+	 *
+	 * @param out receives the entries. The names passed to out.begin() are the names of the providers.
+	 */
+	public void computeSimilarityMatrix(SimilarityMatrixWriter out) throws IOException, InterruptedException, ExecutionException {
+		final List<String> names;
+		final List<ProcessTree> trees;
+		synchronized (this) {
+			names = new ArrayList<String>(this.names);
+			trees = new ArrayList<ProcessTree>(this.providers);
+		}
+		final int n = trees.size();
+
+		out.begin(names);
+		for (int bandStart = 0; bandStart < n; bandStart += TILE_SIZE) {
+			final int rowFrom = bandStart;
+			final int rowTo = Math.min(n, bandStart + TILE_SIZE);
+			final int rows = rowTo - rowFrom;
+
+			// (i, j) for i in the band, j >= rowFrom
+			final MetricResult[][] upper = new MetricResult[rows][n - rowFrom];
+			// (j, i) for i in the band, j >= rowTo
+			final MetricResult[][] lower = new MetricResult[n - rowTo][rows];
+
+			// only the tiles on and right of the diagonal: the tiles left of it have been computed as "lower" of previous bands
+			int tiles = (n - rowFrom + TILE_SIZE - 1) / TILE_SIZE;
+			forEach(tiles, new IndexedTask() {
+				@Override
+				public void run(int tile) {
+					int colFrom = rowFrom + tile*TILE_SIZE;
+					int colTo = Math.min(n, colFrom + TILE_SIZE);
+					for (int i = rowFrom; i < rowTo; i++) {
+						ProcessTree pti = trees.get(i);
+						// on the diagonal tile, j starts at i. (j, i) with j < i is set when handling row j
+						for (int j = Math.max(colFrom, i); j < colTo; j++) {
+							ProcessTree ptj = trees.get(j);
+							MetricResult ij = new Comparator(pti, ptj).getDegreeOfInexactMatching();
+							MetricResult ji;
+							if (i == j) {
+								ji = ij;
+							} else if (pti.hasUniqueLabels() && ptj.hasUniqueLabels()) {
+								ji = ij;
+							} else {
+								ji = new Comparator(ptj, pti).getDegreeOfInexactMatching();
+							}
+							upper[i - rowFrom][j - rowFrom] = ij;
+							if (j < rowTo) {
+								upper[j - rowFrom][i - rowFrom] = ji;
+							} else {
+								lower[j - rowTo][i - rowFrom] = ji;
+							}
+						}
+					}
+				}
+			});
+
+			for (int i = rowFrom; i < rowTo; i++) {
+				for (int j = rowFrom; j < n; j++) {
+					out.write(i, j, upper[i - rowFrom][j - rowFrom]);
+				}
+			}
+			for (int j = rowTo; j < n; j++) {
+				for (int i = rowFrom; i < rowTo; i++) {
+					out.write(j, i, lower[j - rowTo][i - rowFrom]);
+				}
+			}
+		}
+		out.end();
+	}
+
+	/**
+	 * @return the indices of bounds ordered by decreasing bound, NaN first. Equal bounds are ordered by index.
+	 */
+	private static int[] sortByBoundDescending(final double[] bounds) {
+		Integer[] order = new Integer[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				int res = Double.compare(bounds[i2], bounds[i1]);
+				if (res != 0) {
+					return res;
+				}
+				return i1.compareTo(i2);
+			}
+		});
+		int[] res = new int[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			res[i] = order[i];
+		}
+		return res;
+	}
+
+	/**
+	 * Runs task for all indices 0..n-1 on the threads of the repository. Returns after all indices have been processed.
+	 *
+	 * The indices are handed out one by one, thus long running comparisons do not delay the other threads.
+	 */
+	private void forEach(final int n, final IndexedTask task) throws InterruptedException, ExecutionException {
+		final AtomicInteger next = new AtomicInteger(0);
+		int workers = Math.min(threadCount, n);
+		List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+		ExecutorService executor = getExecutor();
+		for (int w = 0; w < workers; w++) {
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+						task.run(i);
+					}
+				}
+			}));
+		}
+		for (Future<?> f: futures) {
+			// propagates exceptions of the task
+			f.get();
+		}
+	}
+
+	/**
+	 * @return empty results for all providers sharing at least minOverlap labels with the consumer, in the order the providers have been added
+	 */
+	private synchronized List<MatchResult> getCandidates(ProcessTree consumer, int minOverlap) {
+		// providers without any common label are not returned by the index
+		LabelIndex.Candidates c = labelIndex.query(consumer.getAllBasicNonSilentActivies(), Math.max(1, minOverlap));
+
+		List<MatchResult> res;
+		if (minOverlap > 0) {
+			res = new ArrayList<MatchResult>(c.size());
+			for (int i = 0; i < c.size(); i++) {
+				int p = c.processes[i];
+				res.add(new MatchResult(names.get(p), providers.get(p), c.overlap[i], p));
+			}
+		} else {
+			res = new ArrayList<MatchResult>(providers.size());
+			int i = 0;
+			for (int p = 0; p < providers.size(); p++) {
+				int overlap = 0;
+				if ((i < c.size()) && (c.processes[i] == p)) {
+					overlap = c.overlap[i];
+					i++;
+				}
+				res.add(new MatchResult(names.get(p), providers.get(p), overlap, p));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return empty results for the providers returned by relationIndex, in the order the providers have been added
+	 */
+	private synchronized List<MatchResult> getSimilarCandidates(ProcessTree consumer, int[] signature) {
+		int[] processes = relationIndex.query(signature);
+		List<MatchResult> res = new ArrayList<MatchResult>(processes.length);
+		for (int p: processes) {
+			ProcessTree provider = providers.get(p);
+			int overlap = LabelIndex.overlap(consumer.getAllBasicNonSilentActivies(), provider.getAllBasicNonSilentActivies());
+			res.add(new MatchResult(names.get(p), provider, overlap, p));
+		}
+		return res;
+	}
+
+	/**
+	 * The comparators are created here and not taken from the cache of the ProcessTrees:
+	 * The cache of the consumer would be accessed by all threads concurrently.
+	 */
+	private static void match(ProcessTree consumer, MatchResult res) {
+		Comparator consumerProvider = new Comparator(consumer, res.provider);
+		res.exact = consumerProvider.matchesExactly();
+		setPluginFlags(consumer, res, consumerProvider);
+		res.degree = consumerProvider.getDegreeOfInexactMatching();
+	}
+
+	/**
+	 * Most providers fail the subset tests of the plugin check. The label signatures reject them
+	 * without building the Comparator from the provider to the consumer.
+	 */
+	private static void setPluginFlags(ProcessTree consumer, MatchResult res, Comparator consumerProvider) {
+		ProcessTree provider = res.provider;
+		res.consumerIsPlugin = consumer.mayBePluginForProcessTree(provider) && consumerProvider.isPlugin();
+		res.providerIsPlugin = provider.mayBePluginForProcessTree(consumer) && new Comparator(provider, consumer).isPlugin();
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ProcessRepository");
+					// do not prevent the JVM from exiting if shutdown() is not called
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the threads used for matching. The repository may be used afterwards; new threads are started then.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+}
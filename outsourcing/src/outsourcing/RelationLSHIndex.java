@@ -0,0 +1,179 @@
+package outsourcing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import outsourcing.processtree.Node;
+import outsourcing.processtree.Operation;
+import outsourcing.processtree.ProcessTree;
+import outsourcing.processtree.ProcessType;
+
+/**
+ * Locality sensitive hashing (LSH) of process types
+ *
+ * A process type is regarded as the set of triples (label1, label2, relation) of all pairs of basic nodes.
+ * The MinHash signature of this set consists of the minimum of BANDS * ROWS hash functions over the triples.
+ * The probability that two signatures agree at a position is the Jaccard similarity of the triple sets.
+ *
+ * The signature is split into BANDS bands of ROWS values. Two processes are candidates if they agree on
+ * all values of at least one band. The probability of becoming a candidate is 1 - (1 - s^ROWS)^BANDS for
+ * Jaccard similarity s: with 16 bands of 4 rows, processes with s = 0.3 are found with probability 0.12,
+ * with s = 0.5 with 0.65 and with s = 0.7 with 0.99.
+ *
+ * A query only visits one bucket per band. Thus, it does not depend on the number of processes, but on the number
+ * of similar processes.
+ *
+ * Not thread-safe. ProcessRepository synchronizes the access.
+ */
+class RelationLSHIndex {
+
+	final static int BANDS = 16;
+	final static int ROWS = 4;
+	private final static int SIGNATURE_LENGTH = BANDS * ROWS;
+
+	// seeds of the hash functions. Fixed, thus signatures are reproducible.
+	private final static long[] SEEDS = new long[SIGNATURE_LENGTH];
+	static {
+		long seed = 0x2545F4914F6CDD1DL;
+		for (int k = 0; k < SIGNATURE_LENGTH; k++) {
+			seed = mix(seed + k);
+			SEEDS[k] = seed;
+		}
+	}
+
+	/**
+	 * Growable list of process positions
+	 */
+	private static class Bucket {
+		int[] processes = new int[2];
+		int size = 0;
+
+		void add(int process) {
+			if (size == processes.length) {
+				processes = Arrays.copyOf(processes, 2*size);
+			}
+			processes[size] = process;
+			size++;
+		}
+	}
+
+	// one hash table per band: hash of the values of the band -> processes
+	private final List<HashMap<Long, Bucket>> bands = new ArrayList<HashMap<Long, Bucket>>(BANDS);
+
+	RelationLSHIndex() {
+		for (int b = 0; b < BANDS; b++) {
+			bands.add(new HashMap<Long, Bucket>());
+		}
+	}
+
+	/**
+	 * Computes the MinHash signature of the process type of pt
+	 *
+	 * Each pair of basic nodes is considered once. The triple is oriented by the label ids: (l1, l2, op) and
+	 * (l2, l1, op.getReverse()) describe the same relation and thus are the same triple.
+	 *
+	 * Takes O(n^2 * BANDS * ROWS) time for n basic nodes.
+	 */
+	static int[] signature(ProcessTree pt) {
+		int[] sig = new int[SIGNATURE_LENGTH];
+		Arrays.fill(sig, Integer.MAX_VALUE);
+
+		Node[] basicNodes = pt.getBasicNodes();
+		ProcessType processType = pt.getProcessType();
+		for (int i = 0; i < basicNodes.length; i++) {
+			Node n1 = basicNodes[i];
+			for (int j = i + 1; j < basicNodes.length; j++) {
+				Node n2 = basicNodes[j];
+				Operation op = processType.getRelation(n1, n2);
+				long triple;
+				if (n1.getLabelId() <= n2.getLabelId()) {
+					triple = triple(n1.getLabelId(), n2.getLabelId(), op);
+				} else {
+					triple = triple(n2.getLabelId(), n1.getLabelId(), op.getReverse());
+				}
+				for (int k = 0; k < SIGNATURE_LENGTH; k++) {
+					// the upper bits are mixed best
+					int h = (int) (mix(triple ^ SEEDS[k]) >>> 32);
+					if (h < sig[k]) {
+						sig[k] = h;
+					}
+				}
+			}
+		}
+		return sig;
+	}
+
+	private static long triple(int label1, int label2, Operation op) {
+		return mix((((long) label1) << 32) | (label2 & 0xFFFFFFFFL)) + op.ordinal();
+	}
+
+	/**
+	 * Finalizer of SplitMix64 (a bijection with good avalanche behavior)
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long bandKey(int[] sig, int band) {
+		long key = band;
+		for (int r = band * ROWS; r < (band + 1) * ROWS; r++) {
+			key = mix(key * 31 + sig[r]);
+		}
+		return key;
+	}
+
+	/**
+	 * Adds the process with the given position and signature
+	 */
+	void add(int process, int[] sig) {
+		for (int b = 0; b < BANDS; b++) {
+			HashMap<Long, Bucket> band = bands.get(b);
+			long key = bandKey(sig, b);
+			Bucket bucket = band.get(key);
+			if (bucket == null) {
+				bucket = new Bucket();
+				band.put(key, bucket);
+			}
+			bucket.add(process);
+		}
+	}
+
+	/**
+	 * @return the positions of all processes sharing at least one band with the signature, ascending
+	 */
+	int[] query(int[] sig) {
+		Bucket[] hits = new Bucket[BANDS];
+		int total = 0;
+		for (int b = 0; b < BANDS; b++) {
+			hits[b] = bands.get(b).get(bandKey(sig, b));
+			if (hits[b] != null) {
+				total += hits[b].size;
+			}
+		}
+
+		int[] all = new int[total];
+		int pos = 0;
+		for (Bucket bucket: hits) {
+			if (bucket != null) {
+				System.arraycopy(bucket.processes, 0, all, pos, bucket.size);
+				pos += bucket.size;
+			}
+		}
+		Arrays.sort(all);
+
+		// remove duplicates
+		int distinct = 0;
+		for (int i = 0; i < all.length; i++) {
+			if ((i == 0) || (all[i] != all[i-1])) {
+				all[distinct] = all[i];
+				distinct++;
+			}
+		}
+		return Arrays.copyOf(all, distinct);
+	}
+
+}
@@ -0,0 +1,357 @@
+package outsourcing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import outsourcing.processtree.Comparator.MetricResult;
+
+/**
+ * Persistent cache of the results of Main.analyzeProcesses()
+ *
+ * The key is a SHA-256 hash of ALGORITHM_VERSION and the contents of both BPEL files, the WSDL files they import
+ * and the projection files (see key()). Thus, a result is only found if none of the files has been changed.
+ *
+ * The results are appended to a file. Each record has a fixed size and ends with a CRC32 of its content.
+ * If the program crashes while appending, the incomplete record is detected and cut off the next time the file
+ * is opened. Records are never overwritten: if a key is stored twice, the last record wins.
+ *
+ * Several programs may use the same file: records are appended and read only while holding an exclusive lock
+ * on the file (FileChannel.lock()). The records appended by other programs are read by get() and put().
+ * The lock is held by the whole JVM, thus a file must not be opened twice within one JVM.
+ *
+ * File format (big endian, see RandomAccessFile):
+ *   int MAGIC, int FORMAT_VERSION,
+ *   records: 32 bytes key, byte flags (exact, P1|>P2, P2|>P1), double M1, M2, MI1, MI2, int CRC32 of the preceding bytes
+ */
+public class ResultCache implements Closeable {
+	private static Logger logger = Logger.getLogger(ResultCache.class);
+
+	/**
+	 * Part of each key. Has to be increased whenever the matching algorithms change their results.
+	 */
+	public final static int ALGORITHM_VERSION = 1;
+
+	/**
+	 * "PTRC" - process tree result cache
+	 */
+	public final static int MAGIC = 0x50545243;
+	private final static int FORMAT_VERSION = 1;
+	private final static int HEADER_SIZE = 8;
+
+	private final static int KEY_SIZE = 32;
+	private final static int RECORD_SIZE = KEY_SIZE + 1 + 4*8 + 4;
+
+	private final static int FLAG_EXACT = 1;
+	private final static int FLAG_P1_PLUGIN_FOR_P2 = 2;
+	private final static int FLAG_P2_PLUGIN_FOR_P1 = 4;
+
+	// import elements of BPEL processes: <import ... location="..." .../>
+	private final static Pattern importLocation = Pattern.compile("<(?:[\\w-]+:)?import\\b[^>]*\\blocation\\s*=\\s*[\"']([^\"']*)[\"']");
+
+	/**
+	 * A cached result of matching P1 and P2
+	 */
+	public static class Entry {
+		public final boolean exact;
+		public final boolean p1PluginForP2;
+		public final boolean p2PluginForP1;
+		// pt1.getDegreeOfInexactMatching(pt2)
+		public final MetricResult degree;
+
+		public Entry(boolean exact, boolean p1PluginForP2, boolean p2PluginForP1, MetricResult degree) {
+			this.exact = exact;
+			this.p1PluginForP2 = p1PluginForP2;
+			this.p2PluginForP1 = p2PluginForP1;
+			this.degree = degree;
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile raf;
+
+	// hex string of the key -> entry
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	// end of the records read so far
+	private long end = HEADER_SIZE;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Opens the cache stored in the given file. The file is created if it does not exist.
+	 *
+	 * @throws IOException if the file is no result cache of this format version. The file is left unchanged then.
+	 */
+	public ResultCache(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		try {
+			FileLock lock = raf.getChannel().lock();
+			try {
+				load();
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the header of a new file or checks the header of an existing one. Then, reads all records.
+	 */
+	private void load() throws IOException {
+		long length = raf.length();
+		if (length == 0) {
+			raf.writeInt(MAGIC);
+			raf.writeInt(FORMAT_VERSION);
+			raf.getFD().sync();
+			return;
+		}
+		if ((length < HEADER_SIZE) || (raf.readInt() != MAGIC)) {
+			throw new IOException(String.format("%s is no result cache", file));
+		}
+		int version = raf.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException(String.format("%s has format version %d, %d is supported", file, version, FORMAT_VERSION));
+		}
+		scan();
+		logger.debug(String.format("%s: %d results loaded", file, entries.size()));
+	}
+
+	/**
+	 * Reads the records appended since the last call. Cuts off an incomplete or damaged tail.
+	 *
+	 * The lock on the file has to be held: the tail may only be cut off if no other program is appending.
+	 */
+	private void scan() throws IOException {
+		long length = raf.length();
+		byte[] record = new byte[RECORD_SIZE];
+		long pos = end;
+		while (pos + RECORD_SIZE <= length) {
+			raf.seek(pos);
+			raf.readFully(record);
+			if (!checksumMatches(record)) {
+				break;
+			}
+			ByteBuffer b = ByteBuffer.wrap(record);
+			byte[] key = new byte[KEY_SIZE];
+			b.get(key);
+			int flags = b.get();
+			MetricResult degree = new MetricResult();
+			degree.M1 = b.getDouble();
+			degree.M2 = b.getDouble();
+			degree.MI1 = b.getDouble();
+			degree.MI2 = b.getDouble();
+			entries.put(toHex(key), new Entry((flags & FLAG_EXACT) != 0, (flags & FLAG_P1_PLUGIN_FOR_P2) != 0, (flags & FLAG_P2_PLUGIN_FOR_P1) != 0, degree));
+			pos += RECORD_SIZE;
+		}
+
+		if (pos < length) {
+			logger.warn(String.format("%s: cutting off %d bytes of an incomplete or damaged record", file, length - pos));
+			raf.setLength(pos);
+			raf.getFD().sync();
+		}
+		end = pos;
+	}
+
+	private static boolean checksumMatches(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, RECORD_SIZE - 4);
+		int stored = ByteBuffer.wrap(record, RECORD_SIZE - 4, 4).getInt();
+		return stored == (int) crc.getValue();
+	}
+
+	/**
+	 * Reads the records other programs have appended since the last call of get() or put() first
+	 *
+	 * @param key see key()
+	 * @return the cached result, null if there is none
+	 */
+	public synchronized Entry get(byte[] key) throws IOException {
+		if (raf.length() != end) {
+			FileLock lock = raf.getChannel().lock();
+			try {
+				scan();
+			} finally {
+				lock.release();
+			}
+		}
+		Entry entry = entries.get(toHex(key));
+		if (entry == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Appends the result to the file and syncs the file to the disk
+	 *
+	 * The records other programs have appended are read first. The record is written at the end of the file,
+	 * even if another program has appended records since.
+	 *
+	 * @param key see key()
+	 */
+	public synchronized void put(byte[] key, Entry entry) throws IOException {
+		if (key.length != KEY_SIZE) {
+			throw new IllegalArgumentException(String.format("key has to have %d bytes", KEY_SIZE));
+		}
+		ByteBuffer b = ByteBuffer.allocate(RECORD_SIZE);
+		b.put(key);
+		int flags = 0;
+		if (entry.exact)
+			flags |= FLAG_EXACT;
+		if (entry.p1PluginForP2)
+			flags |= FLAG_P1_PLUGIN_FOR_P2;
+		if (entry.p2PluginForP1)
+			flags |= FLAG_P2_PLUGIN_FOR_P1;
+		b.put((byte) flags);
+		b.putDouble(entry.degree.M1);
+		b.putDouble(entry.degree.M2);
+		b.putDouble(entry.degree.MI1);
+		b.putDouble(entry.degree.MI2);
+		CRC32 crc = new CRC32();
+		crc.update(b.array(), 0, RECORD_SIZE - 4);
+		b.putInt((int) crc.getValue());
+
+		FileLock lock = raf.getChannel().lock();
+		try {
+			scan();
+			// a single write: a crash leaves at most one incomplete record at the end
+			raf.seek(raf.length());
+			raf.write(b.array());
+			raf.getFD().sync();
+			end = raf.length();
+		} finally {
+			lock.release();
+		}
+		entries.put(toHex(key), entry);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of calls of get() returning a result
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of calls of get() returning null
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * Determines the key of matching the given processes
+	 *
+	 * Hashes ALGORITHM_VERSION and the contents of the files. For each BPEL file, the files referenced by the
+	 * location attribute of its import elements are hashed, too (relative to the BPEL file). Imports of the
+	 * imported files are not followed.
+	 *
+	 * @param projection1 may be null
+	 * @param projection2 may be null
+	 */
+	public static byte[] key(File process1, File process2, File projection1, File projection2) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// each Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		md.update(ByteBuffer.allocate(4).putInt(ALGORITHM_VERSION).array());
+		hashProcess(md, process1);
+		hashProcess(md, process2);
+		hashFile(md, projection1);
+		hashFile(md, projection2);
+		return md.digest();
+	}
+
+	private static void hashProcess(MessageDigest md, File process) throws IOException {
+		byte[] content = hashFile(md, process);
+		Matcher m = importLocation.matcher(new String(content, "UTF-8"));
+		while (m.find()) {
+			File imported = new File(process.getParentFile(), m.group(1));
+			if (imported.isFile()) {
+				hashFile(md, imported);
+			} else {
+				logger.debug(String.format("%s: imported file %s not found", process, imported));
+			}
+		}
+	}
+
+	/**
+	 * Hashes the length and the content of the file, or a marker if file is null
+	 *
+	 * @return the content of the file
+	 */
+	private static byte[] hashFile(MessageDigest md, File f) throws IOException {
+		if (f == null) {
+			md.update(ByteBuffer.allocate(8).putLong(-1).array());
+			return new byte[0];
+		}
+		byte[] content = readFully(f);
+		// the length separates the contents of consecutive files
+		md.update(ByteBuffer.allocate(8).putLong(content.length).array());
+		md.update(content);
+		return content;
+	}
+
+	private static byte[] readFully(File f) throws IOException {
+		long length = f.length();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException(String.format("%s is too large", f));
+		}
+		byte[] content = new byte[(int) length];
+		InputStream in = new FileInputStream(f);
+		try {
+			int pos = 0;
+			while (pos < content.length) {
+				int read = in.read(content, pos, content.length - pos);
+				if (read < 0) {
+					throw new IOException(String.format("%s has been truncated while reading", f));
+				}
+				pos += read;
+			}
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+	private static String toHex(byte[] key) {
+		StringBuilder sb = new StringBuilder(2 * key.length);
+		for (byte b: key) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,138 @@
+package outsourcing;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+
+import outsourcing.processtree.Comparator.MetricResult;
+
+/**
+ * Output of the all-pairs similarity matrix of a ProcessRepository
+ *
+ * The entries are written one by one as they are computed. They are not ordered.
+ * Each ordered pair (i, j) of processes, including (i, i), is written exactly once.
+ */
+public abstract class SimilarityMatrixWriter {
+
+	/**
+	 * Called once before the first entry
+	 *
+	 * @param names the names of the processes. Entries refer to the processes by their position in this list.
+	 */
+	abstract void begin(List<String> names) throws IOException;
+
+	/**
+	 * @param i the process compared (pt1)
+	 * @param j the process compared to (pt2)
+	 * @param res pt1.getDegreeOfInexactMatching(pt2)
+	 */
+	abstract void write(int i, int j, MetricResult res) throws IOException;
+
+	/**
+	 * Called once after the last entry. Flushes the output, but does not close it.
+	 */
+	abstract void end() throws IOException;
+
+	/**
+	 * CSV output
+	 *
+	 * A header "i,j,M1,M2,MI1,MI2" followed by one line per pair.
+	 * The names of the processes are written as comments ("# index name") before the header.
+	 */
+	public static SimilarityMatrixWriter csv(Writer out) {
+		return new CsvWriter(out);
+	}
+
+	/**
+	 * Binary output (big endian, see DataOutputStream)
+	 *
+	 * Header: the int MAGIC, the int n, n names (writeUTF)
+	 * Then one record per pair: int i, int j, float M1, float M2, float MI1, float MI2 (24 bytes)
+	 */
+	public static SimilarityMatrixWriter binary(OutputStream out) {
+		return new BinaryWriter(out);
+	}
+
+	/**
+	 * "PTSM" - process tree similarity matrix
+	 */
+	public final static int MAGIC = 0x5054534D;
+
+	private static class CsvWriter extends SimilarityMatrixWriter {
+		private final static String newline = System.getProperty("line.separator");
+
+		private final BufferedWriter out;
+
+		CsvWriter(Writer out) {
+			this.out = new BufferedWriter(out);
+		}
+
+		@Override
+		void begin(List<String> names) throws IOException {
+			for (int i = 0; i < names.size(); i++) {
+				out.write(String.format("# %d %s%s", i, names.get(i), newline));
+			}
+			out.write("i,j,M1,M2,MI1,MI2");
+			out.write(newline);
+		}
+
+		@Override
+		void write(int i, int j, MetricResult res) throws IOException {
+			// Double.toString is exact (round trip) and locale independent
+			out.write(Integer.toString(i));
+			out.write(',');
+			out.write(Integer.toString(j));
+			out.write(',');
+			out.write(Double.toString(res.M1));
+			out.write(',');
+			out.write(Double.toString(res.M2));
+			out.write(',');
+			out.write(Double.toString(res.MI1));
+			out.write(',');
+			out.write(Double.toString(res.MI2));
+			out.write(newline);
+		}
+
+		@Override
+		void end() throws IOException {
+			out.flush();
+		}
+	}
+
+	private static class BinaryWriter extends SimilarityMatrixWriter {
+		private final DataOutputStream out;
+
+		BinaryWriter(OutputStream out) {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+		}
+
+		@Override
+		void begin(List<String> names) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(names.size());
+			for (String name: names) {
+				out.writeUTF(name);
+			}
+		}
+
+		@Override
+		void write(int i, int j, MetricResult res) throws IOException {
+			out.writeInt(i);
+			out.writeInt(j);
+			out.writeFloat((float) res.M1);
+			out.writeFloat((float) res.M2);
+			out.writeFloat((float) res.MI1);
+			out.writeFloat((float) res.MI2);
+		}
+
+		@Override
+		void end() throws IOException {
+			out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package outsourcing;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+/**
+ * Cache of parsed WSDL files shared by the resource sets of all loaded processes
+ *
+ * Every process is loaded into its own resource set (see Main.loadProcess()). Without the cache, each of them
+ * parses the imported WSDL files again to resolve the partner link types and operations.
+ * The resource sets created by createResourceSet() take the WSDL files from this cache instead.
+ *
+ * A WSDL file is identified by its URI and its modification time: a modified file is parsed again.
+ * Only local files are cached.
+ *
+ * The cached resources are shared by all resource sets and threads, thus they are read-only: they must not be
+ * modified, and their proxies are resolved (EcoreUtil.resolveAll()) before they are published. Resolving a proxy
+ * later would modify the shared resource. The resources referenced by a WSDL file (e.g., imported WSDL files)
+ * are loaded into the resource set of the WSDL file, not taken from the cache.
+ *
+ * All methods are thread-safe. Each file is parsed once: a thread requesting a file being parsed by another
+ * thread waits for that file only. Different files are parsed in parallel.
+ */
+public class WsdlCache {
+	private static Logger logger = Logger.getLogger(WsdlCache.class);
+
+	private final static String WSDL_EXTENSION = "wsdl";
+
+	private static class Key {
+		private final URI uri;
+		private final long lastModified;
+
+		Key(URI uri, long lastModified) {
+			this.uri = uri;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return uri.hashCode() * 31 + (int) (lastModified ^ (lastModified >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return (lastModified == k.lastModified) && uri.equals(k.uri);
+		}
+	}
+
+	/**
+	 * Resource set taking the WSDL files from the cache. All other resources are loaded as usual.
+	 */
+	private static class SharedResourceSet extends ResourceSetImpl {
+		private final WsdlCache cache;
+
+		SharedResourceSet(WsdlCache cache) {
+			this.cache = cache;
+		}
+
+		@Override
+		public Resource getResource(URI uri, boolean loadOnDemand) {
+			if (loadOnDemand && cache.isCached(uri)) {
+				Resource res = cache.getResource(uri);
+				if (res != null) {
+					return res;
+				}
+			}
+			return super.getResource(uri, loadOnDemand);
+		}
+
+		Resource load(URI uri) {
+			return super.getResource(uri, true);
+		}
+	}
+
+	// completed or running parses
+	private final ConcurrentHashMap<Key, FutureTask<Resource>> resources = new ConcurrentHashMap<Key, FutureTask<Resource>>();
+
+	// true while the current thread parses a file for the cache
+	private final ThreadLocal<Boolean> parsing = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @return a new resource set for loading one process. Imported WSDL files are taken from the cache.
+	 */
+	public ResourceSet createResourceSet() {
+		return new SharedResourceSet(this);
+	}
+
+	private boolean isCached(URI uri) {
+		return uri.isFile() && WSDL_EXTENSION.equalsIgnoreCase(uri.fileExtension());
+	}
+
+	/**
+	 * @return the parsed WSDL file, null if the current thread is parsing a WSDL file for the cache.
+	 *         The caller has to load it on its own then.
+	 */
+	private Resource getResource(final URI uri) {
+		if (parsing.get()) {
+			// a file referenced while parsing is not taken from the cache: waiting for another thread here
+			// could deadlock if that thread waits for the file parsed by this thread (cyclic imports)
+			return null;
+		}
+
+		Key key = new Key(uri, new File(uri.toFileString()).lastModified());
+		FutureTask<Resource> task = resources.get(key);
+		if (task == null) {
+			FutureTask<Resource> newTask = new FutureTask<Resource>(new Callable<Resource>() {
+				@Override
+				public Resource call() {
+					parsing.set(Boolean.TRUE);
+					try {
+						Resource res = new SharedResourceSet(WsdlCache.this).load(uri);
+						// resolving a proxy modifies the resource, thus the shared resource has to be resolved completely
+						EcoreUtil.resolveAll(res);
+						return res;
+					} finally {
+						parsing.set(Boolean.FALSE);
+					}
+				}
+			});
+			task = resources.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				misses.incrementAndGet();
+				task.run();
+				// drop outdated versions of the file
+				for (Iterator<Key> it = resources.keySet().iterator(); it.hasNext(); ) {
+					Key k = it.next();
+					if (k.uri.equals(uri) && (k.lastModified != key.lastModified)) {
+						it.remove();
+					}
+				}
+				logger.debug(String.format("parsed %s", uri));
+			} else {
+				hits.incrementAndGet();
+			}
+		} else {
+			hits.incrementAndGet();
+		}
+
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			// the next request parses the file again
+			resources.remove(key, task);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(String.format("interrupted while waiting for %s", uri), e);
+		}
+	}
+
+	public int size() {
+		return resources.size();
+	}
+
+	/**
+	 * @return the number of requests served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of WSDL files parsed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public void clear() {
+		resources.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size=%d hits=%d misses=%d", resources.size(), hits.get(), misses.get());
+	}
+
+}
@@ -0,0 +1,575 @@
+package outsourcing.processtree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+
+import outsourcing.processtree.labels.CommunicationConstructLabel;
+import outsourcing.processtree.labels.EmptyLabel;
+import outsourcing.processtree.labels.Label;
+
+/**
+ * Builds a ProcessTree from a BPEL file in a single StAX pass, without the EMF BPEL model
+ *
+ * The tree is the same as the one built by ProcessTree(BPELResource) (see ProcessTree.handleActivity()):
+ * the same nodes, labels, multiplicities, ranks and links. The roles of the partner links are taken
+ * from the myRole and partnerRole attributes and checked against the partner link types declared in the
+ * imported WSDL files (see WsdlIndex).
+ *
+ * The nodes do not refer to BPEL elements. Their status is read from the BPEL file. Thus, the tree
+ * can be matched, but not projected (see ActionList).
+ */
+public final class BPELStreamReader {
+	private static Logger logger = Logger.getLogger(BPELStreamReader.class);
+
+	private final static XMLInputFactory factory = XMLInputFactory.newInstance();
+	static {
+		// BPEL and WSDL do not need DTDs. Not resolving them prevents loading of external entities.
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private final static Set<String> ACTIVITIES = new HashSet<String>(Arrays.asList(
+			"assign", "compensate", "compensateScope", "empty", "exit", "extensionActivity", "flow", "forEach", "if",
+			"invoke", "pick", "receive", "repeatUntil", "reply", "rethrow", "scope", "sequence", "throw", "validate", "wait", "while"));
+
+	private final static String WSDL_IMPORT_TYPE = "http://schemas.xmlsoap.org/wsdl/";
+
+	/**
+	 * A partner link declared at the process or at a scope
+	 */
+	private static class PartnerLinkDeclaration {
+		// local part of the QName
+		final String partnerLinkType;
+		final String myRole;
+		final String partnerRole;
+
+		PartnerLinkDeclaration(String partnerLinkType, String myRole, String partnerRole) {
+			this.partnerLinkType = partnerLinkType;
+			this.myRole = myRole;
+			this.partnerRole = partnerRole;
+		}
+	}
+
+	/**
+	 * The names of the links of an activity (targets and sources elements)
+	 */
+	private static class LinkNames {
+		final List<String> targets = new ArrayList<String>();
+		final List<String> sources = new ArrayList<String>();
+		boolean handled = false;
+	}
+
+	/**
+	 * The links declared at a flow
+	 *
+	 * A link name is resolved at the innermost enclosing flow declaring it. Thus, nested flows may reuse link names.
+	 */
+	private static class LinkScope {
+		final Set<String> declared = new HashSet<String>();
+		// link name -> node of the source/target activity. Only activities whose links are handled are contained.
+		final Map<String, Node> sources = new HashMap<String, Node>();
+		final Map<String, Node> targets = new HashMap<String, Node>();
+	}
+
+	private final File file;
+	private final XMLStreamReader r;
+	private final ProcessTree pt;
+
+	private String bpelNamespace;
+
+	private final WsdlIndex wsdl = new WsdlIndex();
+
+	// innermost scope first
+	private final LinkedList<Map<String, PartnerLinkDeclaration>> partnerLinks = new LinkedList<Map<String, PartnerLinkDeclaration>>();
+
+	// innermost flow first. The last scope takes the links not declared at any enclosing flow.
+	private final LinkedList<LinkScope> linkScopes = new LinkedList<LinkScope>();
+
+	// interned labels: equal labels of a process share one object
+	private final Map<String, CommunicationConstructLabel> labels = new HashMap<String, CommunicationConstructLabel>();
+
+	private BPELStreamReader(File file, XMLStreamReader r, boolean implicitProcessType) {
+		this.file = file;
+		this.r = r;
+		this.pt = new ProcessTree(implicitProcessType);
+	}
+
+	public static ProcessTree read(File file) throws IOException {
+		return read(file, false);
+	}
+
+	/**
+	 * Builds the tree of the given BPEL file. The process type is not determined yet.
+	 *
+	 * @param implicitProcessType see ProcessTree(BPELResource, boolean)
+	 */
+	public static ProcessTree read(File file, boolean implicitProcessType) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			XMLStreamReader r = createReader(in);
+			try {
+				BPELStreamReader reader = new BPELStreamReader(file, r, implicitProcessType);
+				reader.readProcess();
+				return reader.pt;
+			} finally {
+				r.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(String.format("%s: %s", file, e.getMessage()), e);
+		} finally {
+			in.close();
+		}
+	}
+
+	static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+		// XMLInputFactory is not guaranteed to be thread-safe. The only lock shared by all readers of the JVM:
+		// it is held while the stream reader is created, not while the file is parsed.
+		synchronized (factory) {
+			return factory.createXMLStreamReader(in);
+		}
+	}
+
+	/**
+	 * Moves to the next start or end element
+	 *
+	 * @return true at the start of a child of the current element, false at the end of the current element
+	 */
+	private boolean nextChild() throws XMLStreamException {
+		while (true) {
+			int event = r.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Moves from the start of the current element to its end
+	 */
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = r.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private boolean isBPEL(String localName) {
+		return bpelNamespace.equals(r.getNamespaceURI()) && r.getLocalName().equals(localName);
+	}
+
+	private boolean isActivity() {
+		return bpelNamespace.equals(r.getNamespaceURI()) && ACTIVITIES.contains(r.getLocalName());
+	}
+
+	private void readProcess() throws XMLStreamException, IOException {
+		if (!nextChild() || !r.getLocalName().equals("process")) {
+			throw new IOException(String.format("%s is no BPEL process", file));
+		}
+		bpelNamespace = r.getNamespaceURI();
+
+		Node root = Node.fromLabel(new EmptyLabel(), Type.OTHER, Mult.ONE, ProcessTree.RANK_DEFAULT, 0);
+		root.setStatus(readStatus());
+		pt.addRoot(root);
+
+		partnerLinks.addFirst(new HashMap<String, PartnerLinkDeclaration>());
+		linkScopes.addFirst(new LinkScope());
+		boolean activityFound = false;
+		while (nextChild()) {
+			if (isBPEL("import")) {
+				readImport();
+			} else if (isBPEL("partnerLinks")) {
+				readPartnerLinks();
+			} else if (isActivity() && !activityFound) {
+				// only the main activity is translated. Handlers are not supported.
+				activityFound = true;
+				handleActivity(root, Mult.ONE, ProcessTree.RANK_DEFAULT);
+			} else {
+				skipElement();
+			}
+		}
+		linkScopes.removeFirst();
+		partnerLinks.removeFirst();
+	}
+
+	private void readImport() throws XMLStreamException, IOException {
+		String location = r.getAttributeValue(null, "location");
+		String importType = r.getAttributeValue(null, "importType");
+		skipElement();
+		if ((location == null) || !(WSDL_IMPORT_TYPE.equals(importType) || location.endsWith(".wsdl"))) {
+			return;
+		}
+		File imported = new File(file.getParentFile(), location);
+		if (imported.isFile()) {
+			wsdl.add(imported);
+		} else {
+			logger.warn(String.format("%s: imported WSDL file %s not found", file, imported));
+		}
+	}
+
+	private void readPartnerLinks() throws XMLStreamException {
+		Map<String, PartnerLinkDeclaration> declarations = partnerLinks.getFirst();
+		while (nextChild()) {
+			if (isBPEL("partnerLink")) {
+				String name = r.getAttributeValue(null, "name");
+				String type = r.getAttributeValue(null, "partnerLinkType");
+				if (type != null) {
+					// PartnerLinkType does NOT state namespace, we'll just rely on the name
+					type = type.substring(type.indexOf(':') + 1);
+				}
+				declarations.put(name, new PartnerLinkDeclaration(type, r.getAttributeValue(null, "myRole"), r.getAttributeValue(null, "partnerRole")));
+			}
+			skipElement();
+		}
+	}
+
+	/**
+	 * Reads the links element of a flow
+	 */
+	private void readLinks(LinkScope scope) throws XMLStreamException {
+		while (nextChild()) {
+			if (isBPEL("link")) {
+				scope.declared.add(r.getAttributeValue(null, "name"));
+			}
+			skipElement();
+		}
+	}
+
+	/**
+	 * @return the innermost scope declaring the link
+	 */
+	private LinkScope getLinkScope(String name) {
+		for (LinkScope scope: linkScopes) {
+			if (scope.declared.contains(name)) {
+				return scope;
+			}
+		}
+		logger.warn(String.format("%s: link %s is not declared", file, name));
+		return linkScopes.getLast();
+	}
+
+	/**
+	 * Reads a targets or sources element
+	 *
+	 * @return false if the current element is neither a targets nor a sources element. It is not consumed then.
+	 */
+	private boolean readStandardElement(LinkNames links) throws XMLStreamException {
+		List<String> names;
+		String child;
+		if (isBPEL("targets")) {
+			names = links.targets;
+			child = "target";
+		} else if (isBPEL("sources")) {
+			names = links.sources;
+			child = "source";
+		} else {
+			return false;
+		}
+		while (nextChild()) {
+			if (isBPEL(child)) {
+				names.add(r.getAttributeValue(null, "linkName"));
+			}
+			skipElement();
+		}
+		return true;
+	}
+
+	/**
+	 * Same as ProcessTree.handleLinks(). Called once per node, before the nested activities are handled.
+	 */
+	private void handleLinks(Node n, LinkNames links) {
+		if (links.handled) {
+			return;
+		}
+		links.handled = true;
+		if (links.targets.isEmpty() && links.sources.isEmpty()) {
+			return;
+		}
+
+		SimpleDirectedGraph<Node, DefaultEdge> flowGraph = pt.getFlowGraph();
+		flowGraph.addVertex(n);
+		for (String name: links.targets) {
+			LinkScope scope = getLinkScope(name);
+			Node sourceNode = scope.sources.get(name);
+			if (sourceNode != null) {
+				flowGraph.addEdge(sourceNode, n);
+			}
+			scope.targets.put(name, n);
+		}
+		for (String name: links.sources) {
+			LinkScope scope = getLinkScope(name);
+			Node targetNode = scope.targets.get(name);
+			if (targetNode != null) {
+				flowGraph.addEdge(n, targetNode);
+			}
+			scope.sources.put(name, n);
+		}
+	}
+
+	private Status readStatus() {
+		String statusAttr = r.getAttributeValue(Constants.NS_ESOURCING, Constants.ATTR_STATUS);
+		if ((statusAttr == null) || statusAttr.equals("")) {
+			return Status.observable;
+		}
+		try {
+			return Status.fromString(statusAttr);
+		} catch (IllegalStateException e) {
+			logger.error("Could net decode status " + statusAttr, e);
+			return Status.observable;
+		}
+	}
+
+	private Node createNode(Label label, Type type, Mult mult, int rank, int level) {
+		Node n = Node.fromLabel(label, type, mult, rank, level);
+		n.setStatus(readStatus());
+		return n;
+	}
+
+	/**
+	 * Label of the current invoke, receive, reply or onMessage element
+	 */
+	private CommunicationConstructLabel createLabel(boolean useMyRole) {
+		String partnerLinkName = r.getAttributeValue(null, "partnerLink");
+		String operation = r.getAttributeValue(null, "operation");
+
+		PartnerLinkDeclaration pl = null;
+		for (Map<String, PartnerLinkDeclaration> scope: partnerLinks) {
+			pl = scope.get(partnerLinkName);
+			if (pl != null) {
+				break;
+			}
+		}
+		if (pl == null) {
+			throw new IllegalStateException(String.format("%s: partner link %s is not declared", file, partnerLinkName));
+		}
+		String role = useMyRole ? pl.myRole : pl.partnerRole;
+		if ((role == null) || (pl.partnerLinkType == null) || (operation == null)) {
+			throw new IllegalStateException(String.format("%s: partner link %s has no %s or no partner link type, or operation is missing", file, partnerLinkName, useMyRole ? "myRole" : "partnerRole"));
+		}
+		if (!wsdl.containsPartnerLinkType(pl.partnerLinkType)) {
+			logger.warn(String.format("%s: partner link type %s is not declared in the imported WSDL files", file, pl.partnerLinkType));
+		} else if (!wsdl.hasRole(pl.partnerLinkType, role)) {
+			logger.warn(String.format("%s: partner link type %s has no role %s", file, pl.partnerLinkType, role));
+		}
+
+		String key = role + '\u0000' + pl.partnerLinkType + '\u0000' + operation;
+		CommunicationConstructLabel label = labels.get(key);
+		if (label == null) {
+			label = new CommunicationConstructLabel(role, pl.partnerLinkType, operation);
+			labels.put(key, label);
+		}
+		return label;
+	}
+
+	/**
+	 * Same as ProcessTree.handleActivity(). The reader is at the start of the activity. Returns at its end.
+	 */
+	private void handleActivity(Node parent, Mult mult, int rank) throws XMLStreamException {
+		NDC.push("handleActivity");
+		String ln = r.getLocalName();
+		int level = parent.getLevel()+1;
+
+		if (ln.equals("invoke") || ln.equals("receive") || ln.equals("reply")) {
+			// like CommunicationConstructLabel(PartnerActivity): only receives use myRole
+			Node n = createNode(createLabel(ln.equals("receive")), Type.BASIC, mult, rank, level);
+			if (ln.equals("invoke")) {
+				pt.addInvoke(parent, n);
+			} else if (ln.equals("receive")) {
+				pt.addReceive(parent, n);
+			} else {
+				pt.addReply(parent, n);
+			}
+			LinkNames links = new LinkNames();
+			while (nextChild()) {
+				if (!readStandardElement(links)) {
+					skipElement();
+				}
+			}
+			handleLinks(n, links);
+		} else if (ln.equals("pick")) {
+			handlePick(parent, mult, rank, level);
+		} else if (ln.equals("sequence") || ln.equals("flow")) {
+			boolean isFlow = ln.equals("flow");
+			Node n = createNode(new EmptyLabel(), isFlow ? Type.AND : Type.SEQ, mult, rank, level);
+			pt.addChild(parent, n);
+			LinkNames links = new LinkNames();
+			LinkScope scope = null;
+			int cRank = ProcessTree.RANK_FIRSTCHILD;
+			while (nextChild()) {
+				if (readStandardElement(links)) {
+					continue;
+				}
+				// the links of the flow itself are resolved at the enclosing flows, thus the scope is opened afterwards
+				handleLinks(n, links);
+				if (isFlow && (scope == null)) {
+					scope = new LinkScope();
+					linkScopes.addFirst(scope);
+				}
+				if (isFlow && isBPEL("links")) {
+					readLinks(scope);
+				} else if (isActivity()) {
+					handleActivity(n, mult, cRank);
+					cRank++;
+				} else {
+					skipElement();
+				}
+			}
+			handleLinks(n, links);
+			if (scope != null) {
+				linkScopes.removeFirst();
+			}
+		} else if (ln.equals("while") || ln.equals("repeatUntil") || ln.equals("forEach")) {
+			Node n = createNode(new EmptyLabel(), Type.OTHER, mult, rank, level);
+			pt.addChild(parent, n);
+			LinkNames links = new LinkNames();
+			boolean childFound = false;
+			while (nextChild()) {
+				if (readStandardElement(links)) {
+					continue;
+				}
+				handleLinks(n, links);
+				if (isActivity() && !childFound) {
+					childFound = true;
+					handleActivity(n, Mult.ARBITRARY, ProcessTree.RANK_DEFAULT);
+				} else {
+					skipElement();
+				}
+			}
+			handleLinks(n, links);
+		} else if (ln.equals("if")) {
+			handleIf(parent, mult, rank, level);
+		} else if (ln.equals("scope")) {
+			// EH, TH, FH, CH not supported
+			// connect child directly to parent as scope does not add any new meaning. The links of the scope are ignored.
+			partnerLinks.addFirst(new HashMap<String, PartnerLinkDeclaration>());
+			boolean activityFound = false;
+			while (nextChild()) {
+				if (isBPEL("partnerLinks")) {
+					readPartnerLinks();
+				} else if (isActivity() && !activityFound) {
+					activityFound = true;
+					handleActivity(parent, mult, rank);
+				} else {
+					skipElement();
+				}
+			}
+			partnerLinks.removeFirst();
+		} else {
+			logger.error(String.format("unhandled element %s in handleActivity", ln));
+			skipElement();
+		}
+
+		NDC.pop();
+	}
+
+	private void handlePick(Node parent, Mult mult, int rank, int level) throws XMLStreamException {
+		// NOTE: the current code treats a pick EITHER as IXOR or EXOR. A mixture is not possible (and also not foreseen at the EDOC paper)
+		Node n = createNode(new EmptyLabel(), Type.IXOR, mult, rank, level);
+		boolean isEXOR = (n.getStatus() == Status.EXOR);
+		if (isEXOR) {
+			n = createNode(new EmptyLabel(), Type.EXOR, mult, rank, level);
+		}
+		pt.addChild(parent, n);
+
+		// the schema requires all onMessage elements before the onAlarm elements: the order of ProcessTree.handleActivity()
+		LinkNames links = new LinkNames();
+		while (nextChild()) {
+			if (readStandardElement(links)) {
+				continue;
+			}
+			handleLinks(n, links);
+			if (isBPEL("onMessage")) {
+				if (isEXOR) {
+					// we "just" connect the activity of the onMessage to the pick (n) and drop the onMessage itself
+					handleNestedActivity(n, mult, rank);
+				} else {
+					// create the sequence as described in EG2007 page 4
+					Node seq = Node.fromLabel(new EmptyLabel(), Type.SEQ, mult, ProcessTree.RANK_DEFAULT, level+1);
+					pt.addChild(n, seq);
+
+					Node om = createNode(createLabel(true), Type.BASIC, mult, ProcessTree.RANK_FIRSTCHILD, seq.getLevel()+1);
+					pt.addReceive(seq, om);
+					handleNestedActivity(seq, mult, ProcessTree.RANK_FIRSTCHILD+1);
+				}
+			} else if (isBPEL("onAlarm")) {
+				Node seq = Node.fromLabel(new EmptyLabel(), Type.SEQ, mult, ProcessTree.RANK_DEFAULT, level+1);
+				pt.addChild(n, seq);
+				handleNestedActivity(seq, mult, ProcessTree.RANK_FIRSTCHILD);
+			} else {
+				skipElement();
+			}
+		}
+		handleLinks(n, links);
+	}
+
+	private void handleIf(Node parent, Mult mult, int rank, int level) throws XMLStreamException {
+		// depending on the if being an EXOR or an IXOR, create the appropriate node
+		Node n = createNode(new EmptyLabel(), Type.IXOR, mult, rank, level);
+		if (n.getStatus() == Status.EXOR) {
+			n = createNode(new EmptyLabel(), Type.EXOR, mult, rank, level);
+		}
+		pt.addChild(parent, n);
+
+		LinkNames links = new LinkNames();
+		boolean activityFound = false;
+		int cRank = ProcessTree.RANK_FIRSTCHILD+1;
+		while (nextChild()) {
+			if (readStandardElement(links)) {
+				continue;
+			}
+			handleLinks(n, links);
+			if (isActivity() && !activityFound) {
+				activityFound = true;
+				handleActivity(n, mult, ProcessTree.RANK_FIRSTCHILD);
+			} else if (isBPEL("elseif") || isBPEL("else")) {
+				handleNestedActivity(n, mult, cRank);
+				cRank++;
+			} else {
+				skipElement();
+			}
+		}
+		handleLinks(n, links);
+	}
+
+	/**
+	 * Handles the activity nested in the current element (onMessage, onAlarm, elseif, else)
+	 */
+	private void handleNestedActivity(Node parent, Mult mult, int rank) throws XMLStreamException {
+		boolean activityFound = false;
+		while (nextChild()) {
+			if (isActivity() && !activityFound) {
+				activityFound = true;
+				handleActivity(parent, mult, rank);
+			} else {
+				skipElement();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,424 @@
+package outsourcing.processtree;
+
+import java.util.Arrays;
+
+/**
+ * Array based representation of the tree of a ProcessTree
+ *
+ * Each node gets a dense id when added to the tree (Node.getId()). The structure is stored
+ * in arrays indexed by that id. Thus, there are no edge objects and parent and child access is O(1).
+ *
+ * Ids of removed nodes are not reused.
+ *
+ * The children of a node are kept in the order they have been added.
+ *
+ * numberNodes() assigns pre-order numbers. The subtree of a node then is the interval
+ * [getPre(id), getLastPre(id)] of pre-order numbers. Descendant checks are O(1) and the
+ * nodes of a subtree can be iterated without allocation (getIdAtPre()).
+ * The numbering is invalidated by each modification of the tree.
+ */
+class CompactTree {
+
+	public final static int NONE = -1;
+
+	private final static int INITIAL_CAPACITY = 16;
+
+	// number of ids handed out
+	private int size = 0;
+
+	// number of nodes currently contained in the tree
+	private int nodeCount = 0;
+
+	// mapping from id to node, null if the node has been removed
+	private Node[] nodes;
+
+	private int[] parent;
+	private int[] firstChild;
+	private int[] lastChild;
+	private int[] nextSibling;
+	private int[] rank;
+	private int[] level;
+
+	// ordinals of Type and Mult
+	private byte[] type;
+	private byte[] mult;
+
+	// pre-order numbering, valid if numberingValid is true
+	// pre: id -> pre-order number, lastPre: id -> highest pre-order number in the subtree, idAtPre: pre-order number -> id
+	private int[] pre;
+	private int[] lastPre;
+	private int[] idAtPre;
+	private boolean numberingValid = false;
+
+	// see freeze()
+	private boolean frozen = false;
+
+	private final static Type[] TYPES = Type.values();
+	private final static Mult[] MULTS = Mult.values();
+
+	public CompactTree() {
+		nodes = new Node[INITIAL_CAPACITY];
+		parent = new int[INITIAL_CAPACITY];
+		firstChild = new int[INITIAL_CAPACITY];
+		lastChild = new int[INITIAL_CAPACITY];
+		nextSibling = new int[INITIAL_CAPACITY];
+		rank = new int[INITIAL_CAPACITY];
+		level = new int[INITIAL_CAPACITY];
+		type = new byte[INITIAL_CAPACITY];
+		mult = new byte[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @return a modifiable copy of the structure of this tree containing the same nodes with the same ids.
+	 *         The pre-order numbering is not copied.
+	 */
+	CompactTree copy() {
+		CompactTree res = new CompactTree();
+		res.size = size;
+		res.nodeCount = nodeCount;
+		res.nodes = nodes.clone();
+		res.parent = parent.clone();
+		res.firstChild = firstChild.clone();
+		res.lastChild = lastChild.clone();
+		res.nextSibling = nextSibling.clone();
+		res.rank = rank.clone();
+		res.level = level.clone();
+		res.type = type.clone();
+		res.mult = mult.clone();
+		return res;
+	}
+
+	/**
+	 * Puts replacement at the position of n. replacement gets the id of n, n is not contained in the tree afterwards.
+	 * The attributes (type, mult, rank, level) are taken from replacement.
+	 */
+	void replace(Node n, Node replacement) {
+		assertModifiable();
+		if (!contains(n)) {
+			throw new IllegalArgumentException(String.format("%s is not contained in the tree", n));
+		}
+		int id = n.getId();
+		numberingValid = false;
+
+		replacement.setId(id);
+		nodes[id] = replacement;
+		rank[id] = replacement.getRank();
+		level[id] = replacement.getLevel();
+		type[id] = (byte) replacement.getType().ordinal();
+		mult[id] = (byte) replacement.getMult().ordinal();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= nodes.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, 2*nodes.length);
+
+		Node[] newNodes = new Node[newCapacity];
+		System.arraycopy(nodes, 0, newNodes, 0, size);
+		nodes = newNodes;
+
+		parent = grow(parent, newCapacity);
+		firstChild = grow(firstChild, newCapacity);
+		lastChild = grow(lastChild, newCapacity);
+		nextSibling = grow(nextSibling, newCapacity);
+		rank = grow(rank, newCapacity);
+		level = grow(level, newCapacity);
+
+		byte[] newType = new byte[newCapacity];
+		System.arraycopy(type, 0, newType, 0, size);
+		type = newType;
+		byte[] newMult = new byte[newCapacity];
+		System.arraycopy(mult, 0, newMult, 0, size);
+		mult = newMult;
+	}
+
+	private int[] grow(int[] a, int newCapacity) {
+		int[] res = new int[newCapacity];
+		System.arraycopy(a, 0, res, 0, size);
+		return res;
+	}
+
+	/**
+	 * Adds n to the tree without connecting it to a parent
+	 *
+	 * @return false if n is already contained in the tree
+	 */
+	public boolean addNode(Node n) {
+		assertModifiable();
+		if (contains(n)) {
+			return false;
+		}
+
+		ensureCapacity(size+1);
+		numberingValid = false;
+		int id = size;
+		size++;
+		nodeCount++;
+
+		n.setId(id);
+		nodes[id] = n;
+		parent[id] = NONE;
+		firstChild[id] = NONE;
+		lastChild[id] = NONE;
+		nextSibling[id] = NONE;
+		rank[id] = n.getRank();
+		level[id] = n.getLevel();
+		type[id] = (byte) n.getType().ordinal();
+		mult[id] = (byte) n.getMult().ordinal();
+		return true;
+	}
+
+	/**
+	 * Appends child as last child of p. Adds child to the tree if required.
+	 *
+	 * @throws IllegalStateException if child already has a parent
+	 */
+	public void addChild(Node p, Node child) {
+		assertModifiable();
+		addNode(child);
+		int pid = p.getId();
+		int cid = child.getId();
+		if (parent[cid] != NONE) {
+			throw new IllegalStateException(String.format("%s already has parent %s", child, nodes[parent[cid]]));
+		}
+		numberingValid = false;
+
+		parent[cid] = pid;
+		nextSibling[cid] = NONE;
+		if (lastChild[pid] == NONE) {
+			firstChild[pid] = cid;
+		} else {
+			nextSibling[lastChild[pid]] = cid;
+		}
+		lastChild[pid] = cid;
+	}
+
+	/**
+	 * Disconnects the node with the given id from its parent
+	 */
+	public void detach(int id) {
+		assertModifiable();
+		int pid = parent[id];
+		if (pid == NONE) {
+			return;
+		}
+		numberingValid = false;
+
+		// find predecessor in the list of siblings
+		int prev = NONE;
+		int cur = firstChild[pid];
+		while (cur != id) {
+			prev = cur;
+			cur = nextSibling[cur];
+		}
+		if (prev == NONE) {
+			firstChild[pid] = nextSibling[id];
+		} else {
+			nextSibling[prev] = nextSibling[id];
+		}
+		if (lastChild[pid] == id) {
+			lastChild[pid] = prev;
+		}
+
+		parent[id] = NONE;
+		nextSibling[id] = NONE;
+	}
+
+	/**
+	 * Removes n from the tree. The children of n lose their parent.
+	 *
+	 * @return false if n is not contained in the tree
+	 */
+	public boolean remove(Node n) {
+		assertModifiable();
+		if (!contains(n)) {
+			return false;
+		}
+		int id = n.getId();
+		numberingValid = false;
+
+		detach(id);
+
+		int c = firstChild[id];
+		while (c != NONE) {
+			int next = nextSibling[c];
+			parent[c] = NONE;
+			nextSibling[c] = NONE;
+			c = next;
+		}
+		firstChild[id] = NONE;
+		lastChild[id] = NONE;
+
+		nodes[id] = null;
+		nodeCount--;
+		return true;
+	}
+
+	public boolean contains(Node n) {
+		int id = n.getId();
+		return ((id >= 0) && (id < size) && (nodes[id] == n));
+	}
+
+	/**
+	 * @return the number of ids handed out, i.e., an upper bound for all ids
+	 */
+	public int getIdBound() {
+		return size;
+	}
+
+	/**
+	 * @return the number of nodes currently contained in the tree
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return the node with the given id, null if the node has been removed
+	 */
+	public Node getNode(int id) {
+		return nodes[id];
+	}
+
+	public int getParent(int id) {
+		return parent[id];
+	}
+
+	public Node getParent(Node n) {
+		int pid = parent[n.getId()];
+		if (pid == NONE) {
+			return null;
+		} else {
+			return nodes[pid];
+		}
+	}
+
+	public int getFirstChild(int id) {
+		return firstChild[id];
+	}
+
+	public int getNextSibling(int id) {
+		return nextSibling[id];
+	}
+
+	public int getChildCount(int id) {
+		int count = 0;
+		for (int c = firstChild[id]; c != NONE; c = nextSibling[c]) {
+			count++;
+		}
+		return count;
+	}
+
+	public int getRank(int id) {
+		return rank[id];
+	}
+
+	public int getLevel(int id) {
+		return level[id];
+	}
+
+	public Type getType(int id) {
+		return TYPES[type[id]];
+	}
+
+	public Mult getMult(int id) {
+		return MULTS[mult[id]];
+	}
+
+	/**
+	 * Assigns pre-order numbers to all nodes reachable from root
+	 *
+	 * Has to be called again after the tree has been modified
+	 */
+	public void numberNodes(Node root) {
+		assertModifiable();
+		pre = new int[size];
+		lastPre = new int[size];
+		idAtPre = new int[nodeCount];
+		Arrays.fill(pre, NONE);
+		Arrays.fill(lastPre, NONE);
+
+		// iterative traversal - process trees of large processes may be deeper than the call stack allows
+		int num = 0;
+		int id = root.getId();
+		while (id != NONE) {
+			pre[id] = num;
+			idAtPre[num] = id;
+			num++;
+
+			if (firstChild[id] != NONE) {
+				id = firstChild[id];
+			} else {
+				// the subtree of id is complete. Go up until there is a next sibling
+				lastPre[id] = num-1;
+				while ((id != root.getId()) && (nextSibling[id] == NONE)) {
+					id = parent[id];
+					lastPre[id] = num-1;
+				}
+				if (id == root.getId()) {
+					id = NONE;
+				} else {
+					id = nextSibling[id];
+				}
+			}
+		}
+		numberingValid = true;
+	}
+
+	/**
+	 * Makes the tree read-only. Modifications afterwards throw an IllegalStateException.
+	 */
+	void freeze() {
+		frozen = true;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void assertModifiable() {
+		if (frozen) {
+			throw new IllegalStateException("Tree has been frozen");
+		}
+	}
+
+	private void assertNumberingValid() {
+		if (!numberingValid) {
+			throw new IllegalStateException("Tree has been modified after numberNodes()");
+		}
+	}
+
+	/**
+	 * @return the pre-order number of the node, NONE if the node was not reachable by numberNodes()
+	 */
+	public int getPre(int id) {
+		assertNumberingValid();
+		return pre[id];
+	}
+
+	/**
+	 * @return the highest pre-order number in the subtree of the node
+	 */
+	public int getLastPre(int id) {
+		assertNumberingValid();
+		return lastPre[id];
+	}
+
+	/**
+	 * @return the id of the node with the given pre-order number
+	 */
+	public int getIdAtPre(int preNumber) {
+		assertNumberingValid();
+		return idAtPre[preNumber];
+	}
+
+	/**
+	 * @return true if d is a proper descendant of a
+	 */
+	public boolean isDescendant(int a, int d) {
+		assertNumberingValid();
+		return ((pre[a] < pre[d]) && (pre[d] <= lastPre[a]));
+	}
+
+}
@@ -0,0 +1,241 @@
+package outsourcing.processtree;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * Adapter presenting a CompactTree as JGraphT graph
+ *
+ * Edges are not stored, but created on demand. Two edges are equal if they connect the same nodes.
+ * Modifications are written through to the CompactTree.
+ *
+ * Used by the projections and the LCA determination
+ */
+class CompactTreeGraph extends AbstractGraph<Node, DefaultEdge> implements DirectedGraph<Node, DefaultEdge> {
+
+	private final CompactTree tree;
+
+	/**
+	 * An edge from a parent to a child
+	 */
+	static class TreeEdge extends DefaultEdge {
+		private static final long serialVersionUID = 1L;
+
+		private final Node source;
+		private final Node target;
+
+		TreeEdge(Node source, Node target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		protected Object getSource() {
+			return source;
+		}
+
+		@Override
+		protected Object getTarget() {
+			return target;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TreeEdge))
+				return false;
+			TreeEdge e = (TreeEdge) o;
+			return ((source == e.source) && (target == e.target));
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(source) * 31 + System.identityHashCode(target);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + source + " : " + target + ")";
+		}
+	}
+
+	private final EdgeFactory<Node, DefaultEdge> edgeFactory = new EdgeFactory<Node, DefaultEdge>() {
+		@Override
+		public DefaultEdge createEdge(Node sourceVertex, Node targetVertex) {
+			return new TreeEdge(sourceVertex, targetVertex);
+		}
+	};
+
+	CompactTreeGraph(CompactTree tree) {
+		this.tree = tree;
+	}
+
+	private TreeEdge toTreeEdge(DefaultEdge e) {
+		if (e instanceof TreeEdge) {
+			return (TreeEdge) e;
+		} else {
+			throw new IllegalArgumentException("Edge does not belong to a process tree");
+		}
+	}
+
+	@Override
+	public Set<DefaultEdge> getAllEdges(Node sourceVertex, Node targetVertex) {
+		DefaultEdge e = getEdge(sourceVertex, targetVertex);
+		if (e == null) {
+			return Collections.emptySet();
+		} else {
+			return Collections.singleton(e);
+		}
+	}
+
+	@Override
+	public DefaultEdge getEdge(Node sourceVertex, Node targetVertex) {
+		if (containsVertex(sourceVertex) && containsVertex(targetVertex) && (tree.getParent(targetVertex) == sourceVertex)) {
+			return new TreeEdge(sourceVertex, targetVertex);
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public EdgeFactory<Node, DefaultEdge> getEdgeFactory() {
+		return edgeFactory;
+	}
+
+	/**
+	 * @throws IllegalStateException if targetVertex already has a parent
+	 */
+	@Override
+	public DefaultEdge addEdge(Node sourceVertex, Node targetVertex) {
+		assertVertexExist(sourceVertex);
+		assertVertexExist(targetVertex);
+		tree.addChild(sourceVertex, targetVertex);
+		return new TreeEdge(sourceVertex, targetVertex);
+	}
+
+	@Override
+	public boolean addEdge(Node sourceVertex, Node targetVertex, DefaultEdge e) {
+		throw new UnsupportedOperationException("Edges of a process tree are created by the tree itself");
+	}
+
+	@Override
+	public boolean addVertex(Node v) {
+		return tree.addNode(v);
+	}
+
+	@Override
+	public boolean containsEdge(DefaultEdge e) {
+		TreeEdge te = toTreeEdge(e);
+		return (getEdge(te.source, te.target) != null);
+	}
+
+	@Override
+	public boolean containsVertex(Node v) {
+		return tree.contains(v);
+	}
+
+	@Override
+	public Set<DefaultEdge> edgeSet() {
+		LinkedHashSet<DefaultEdge> res = new LinkedHashSet<DefaultEdge>();
+		for (int id = 0; id < tree.getIdBound(); id++) {
+			if ((tree.getNode(id) != null) && (tree.getParent(id) != CompactTree.NONE)) {
+				res.add(new TreeEdge(tree.getNode(tree.getParent(id)), tree.getNode(id)));
+			}
+		}
+		return Collections.unmodifiableSet(res);
+	}
+
+	@Override
+	public Set<DefaultEdge> edgesOf(Node vertex) {
+		LinkedHashSet<DefaultEdge> res = new LinkedHashSet<DefaultEdge>();
+		res.addAll(incomingEdgesOf(vertex));
+		res.addAll(outgoingEdgesOf(vertex));
+		return Collections.unmodifiableSet(res);
+	}
+
+	@Override
+	public DefaultEdge removeEdge(Node sourceVertex, Node targetVertex) {
+		DefaultEdge e = getEdge(sourceVertex, targetVertex);
+		if (e != null) {
+			tree.detach(targetVertex.getId());
+		}
+		return e;
+	}
+
+	@Override
+	public boolean removeEdge(DefaultEdge e) {
+		TreeEdge te = toTreeEdge(e);
+		return (removeEdge(te.source, te.target) != null);
+	}
+
+	@Override
+	public boolean removeVertex(Node v) {
+		return tree.remove(v);
+	}
+
+	@Override
+	public Set<Node> vertexSet() {
+		LinkedHashSet<Node> res = new LinkedHashSet<Node>(tree.getNodeCount()*2);
+		for (int id = 0; id < tree.getIdBound(); id++) {
+			Node n = tree.getNode(id);
+			if (n != null) {
+				res.add(n);
+			}
+		}
+		return Collections.unmodifiableSet(res);
+	}
+
+	@Override
+	public Node getEdgeSource(DefaultEdge e) {
+		return toTreeEdge(e).source;
+	}
+
+	@Override
+	public Node getEdgeTarget(DefaultEdge e) {
+		return toTreeEdge(e).target;
+	}
+
+	@Override
+	public double getEdgeWeight(DefaultEdge e) {
+		return 1.0;
+	}
+
+	@Override
+	public int inDegreeOf(Node vertex) {
+		assertVertexExist(vertex);
+		return (tree.getParent(vertex.getId()) == CompactTree.NONE) ? 0 : 1;
+	}
+
+	@Override
+	public Set<DefaultEdge> incomingEdgesOf(Node vertex) {
+		assertVertexExist(vertex);
+		Node p = tree.getParent(vertex);
+		if (p == null) {
+			return Collections.emptySet();
+		} else {
+			return Collections.<DefaultEdge>singleton(new TreeEdge(p, vertex));
+		}
+	}
+
+	@Override
+	public int outDegreeOf(Node vertex) {
+		assertVertexExist(vertex);
+		return tree.getChildCount(vertex.getId());
+	}
+
+	@Override
+	public Set<DefaultEdge> outgoingEdgesOf(Node vertex) {
+		assertVertexExist(vertex);
+		LinkedHashSet<DefaultEdge> res = new LinkedHashSet<DefaultEdge>();
+		for (int c = tree.getFirstChild(vertex.getId()); c != CompactTree.NONE; c = tree.getNextSibling(c)) {
+			res.add(new TreeEdge(vertex, tree.getNode(c)));
+		}
+		return Collections.unmodifiableSet(res);
+	}
+
+}
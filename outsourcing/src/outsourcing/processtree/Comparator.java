@@ -1,7 +1,6 @@
 package outsourcing.processtree;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.NDC;
@@ -11,8 +10,20 @@ public class Comparator {
 
 	private ProcessTree pt1, pt2;
 
-	private HashMap<Node,Node> equalN2forN1;
-	private HashMap<Node,Node> equalN1forN2;
+	// correspondence of the basic nodes, indexed by Node.getIndex()
+	// equalN2forN1[i] is the index of the node in pt2 equal to pt1.basicNodes[i], NO_MATCH if there is none
+	// equalN1forN2 is the inverse
+	private int[] equalN2forN1;
+	private int[] equalN1forN2;
+
+	// number of entries != NO_MATCH in equalN2forN1 and equalN1forN2
+	private int matchedCount1;
+	private int matchedCount2;
+
+	private final static int NO_MATCH = -1;
+
+	// cache of getExtraRelations(), -1 if not determined yet
+	private int extraRelations = -1;
 
 	public static class MetricResult {
 		/*
@@ -32,34 +43,6 @@ public class Comparator {
 		public double MI2 = 0.0;
 	}
 
-	private static class SimilarNode {
-		private final Logger logger = Logger.getLogger(SimilarNode.class);
-
-		Node realNode;
-
-		public SimilarNode(Node realNode) {
-			this.realNode = realNode;
-		}
-
-		@Override
-		public int hashCode() {
-			int res = realNode.getLabel().hashCode();
-			//logger.debug(String.format("Hashcode of %s is %x", realNode.getDebugString(), res));
-			return res;
-		}
-
-		public boolean equals(Object o) {
-			if (!(o instanceof SimilarNode))
-				return false;
-
-			SimilarNode otherNode = (SimilarNode) o;
-
-			//logger.debug(String.format("Comparing %s and %s", realNode, otherNode.realNode));
-
-			return (realNode.getLabel().equals(otherNode.realNode.getLabel()));
-		}
-	}
-
 	public Comparator(ProcessTree pt1, ProcessTree pt2) {
 		this.pt1 = pt1;
 		this.pt2 = pt2;
@@ -69,32 +52,45 @@ public class Comparator {
 
 	private void buildHashMaps() {
 		NDC.push("buildHashMaps");
-		equalN2forN1 = new HashMap<Node, Node>(pt1.actToNode.size());
-		equalN1forN2 = new HashMap<Node, Node>(pt2.actToNode.size());
-
-		// hash from a node in pt2 to itself -- needed because set.remove() does not return the element itself
-		HashMap<SimilarNode,Node> pt2nodes =  new HashMap<SimilarNode,Node>(pt2.getAllBasicNonSilentActivies().size());
-		for (Node n2: pt2.getAllBasicNonSilentActivies()) {
-			SimilarNode sn2 = new SimilarNode(n2);
-			pt2nodes.put(sn2,n2);
-			//logger.debug(String.format("Put %s %s", sn2, n2.getDebugString()));
-		}
-		for (Node n1: pt1.getAllBasicNonSilentActivies()) {
+		boolean debug = logger.isDebugEnabled();
+		Node[] basicNodes1 = pt1.basicNodes;
+		Node[] basicNodes2 = pt2.basicNodes;
+		equalN2forN1 = new int[basicNodes1.length];
+		equalN1forN2 = new int[basicNodes2.length];
+		Arrays.fill(equalN2forN1, NO_MATCH);
+		Arrays.fill(equalN1forN2, NO_MATCH);
+
+		// equal labels have equal ids (LabelDictionary), thus no Strings have to be compared
+		// the lookup of pt2 is built once by pt2.determineProcesType()
+		LabelLookup pt2labels = pt2.getLabelLookup();
+		for (int i = 0; i < basicNodes1.length; i++) {
+			Node n1 = basicNodes1[i];
 			//logger.debug(String.format("Checking for %s", n1.getDebugString()));
-			Node n2 = pt2nodes.get(new SimilarNode(n1));
-			if (n2==null) {
-				logger.debug(String.format("No matching node found for %s.", n1.getDebugString()));
+			int j = pt2labels.indexOf(n1.getLabelId());
+			if (j == NO_MATCH) {
+				if (debug)
+					logger.debug(String.format("No matching node found for %s.", n1.getDebugString()));
 			} else {
-				logger.debug(String.format("equal node for %s is %s", n1, n2));
-//				logger.debug(n1.getDebugString());
-//				logger.debug(n2.getDebugString());
+				if (debug)
+					logger.debug(String.format("equal node for %s is %s", n1, basicNodes2[j]));
 
-				equalN2forN1.put(n1,n2);
+				equalN2forN1[i] = j;
 
-				// the relation is symmetric. Thus we can add the inverse to the other hashmap
-				equalN1forN2.put(n2,n1);
+				// the relation is symmetric. Thus we can add the inverse to the other array
+				equalN1forN2[j] = i;
 			}
 		}
+
+		matchedCount1 = 0;
+		for (int i = 0; i < equalN2forN1.length; i++) {
+			if (equalN2forN1[i] != NO_MATCH)
+				matchedCount1++;
+		}
+		matchedCount2 = 0;
+		for (int j = 0; j < equalN1forN2.length; j++) {
+			if (equalN1forN2[j] != NO_MATCH)
+				matchedCount2++;
+		}
 		NDC.pop();
 	}
 
@@ -102,8 +98,8 @@ public class Comparator {
 		// equalN2forN1 and equalN2forN1 already built.
 		// if there is an entry for each node of pt1, pt1 and pt2 are equal
 
-		return ((pt1.getAllBasicNonSilentActivies().size() == equalN2forN1.size()) &&
-				(pt2.getAllBasicNonSilentActivies().size() == equalN1forN2.size()));
+		return ((pt1.basicNodes.length == matchedCount1) &&
+				(pt2.basicNodes.length == matchedCount2));
 	}
 
 	public boolean haveEqualProcessType() {
@@ -114,18 +110,17 @@ public class Comparator {
 		if (!haveEqualBasicNonSilentActivities())
 			return false;
 
-//	for (Node na: pt1.getAllBasicNonSilentActivies()) {
-//		for (Node nb: pt1.getAllBasicNonSilentActivies()) {
-//			if (na != nb) {
 		for (int i = 0; i < pt1.basicNodes.length; i++) {
 			Node na = pt1.basicNodes[i];
+			Node na2 = pt2.basicNodes[equalN2forN1[i]];
 			for (int j = i + 1; j < pt1.basicNodes.length; j++) {
 				Node nb = pt1.basicNodes[j];
+				Node nb2 = pt2.basicNodes[equalN2forN1[j]];
 				// for all pairs of nodes in pt1
 				Operation op1 = ptype1.getRelation(na, nb);
-				Operation op2 = ptype2.getRelation(equalN2forN1.get(na), equalN2forN1.get(nb));
+				Operation op2 = ptype2.getRelation(na2, nb2);
 				if (!op1.equals(op2)) {
-					logger.info(String.format("Relations %s/%s %s/%s do not match", na, nb, equalN2forN1.get(na), equalN2forN1.get(nb)));
+					logger.info(String.format("Relations %s/%s %s/%s do not match", na, nb, na2, nb2));
 					return false;
 				}
 			}
@@ -134,14 +129,13 @@ public class Comparator {
 		return true;
 	}
 
+	/**
+	 * Requires that all nodes of pt1 have an equal node in pt2
+	 */
 	public boolean haveSameMultiplicities() {
-		return haveSameMultiplicities(pt1.getAllBasicNonSilentActivies());
-	}
-
-	private boolean haveSameMultiplicities(Set<Node> activitiesOfP1) {
-		for (Node n1: activitiesOfP1) {
-			Node n2 = equalN2forN1.get(n1);
-			if (n1.getMult() != n2.getMult())
+		for (int i = 0; i < pt1.basicNodes.length; i++) {
+			Node n2 = pt2.basicNodes[equalN2forN1[i]];
+			if (pt1.basicNodes[i].getMult() != n2.getMult())
 				return false;
 		}
 
@@ -150,12 +144,12 @@ public class Comparator {
 
 	public boolean operationsOfP2areSubsetOfOperationsOfP1() {
 		for (Node n: pt2.getReceiveActivies()) {
-			if (equalN1forN2.get(n)==null)
+			if (equalN1forN2[n.getIndex()] == NO_MATCH)
 				// if there is no equal node in pt1 found, return false
 				return false;
 		}
 		for (Node n: pt2.getReplyActivies()) {
-			if (equalN1forN2.get(n)==null)
+			if (equalN1forN2[n.getIndex()] == NO_MATCH)
 				// if there is no equal node in pt1 found, return false
 				return false;
 		}
@@ -166,39 +160,119 @@ public class Comparator {
 
 	public boolean invokationsOfP1areSubsetOfInvokationsOfP2() {
 		for (Node n: pt1.getInvokeActivities()) {
-			if (equalN2forN1.get(n)==null)
+			if (equalN2forN1[n.getIndex()] == NO_MATCH)
 				return false;
 		}
 		return true;
 	}
 
 	public boolean commonActivitiesAgreeOnProcessTypesAndMultiplicity() {
-		for (Node p1n1: equalN2forN1.keySet()) {
-			// all keys of the hashmap are operations which are provided by both processes. Otherwise they would not be equal!
-			Node p2n1 = equalN2forN1.get(p1n1);
+		ProcessType ptype1 = pt1.getProcessType();
+		ProcessType ptype2 = pt2.getProcessType();
+
+		for (int i = 0; i < equalN2forN1.length; i++) {
+			if (equalN2forN1[i] == NO_MATCH)
+				// only operations which are provided by both processes are considered
+				continue;
+			Node p1n1 = pt1.basicNodes[i];
+			Node p2n1 = pt2.basicNodes[equalN2forN1[i]];
 
 			// agreeing on the multiplicity
 			if (p1n1.getMult() != p2n1.getMult())
 				return false;
 
 			// check processType
-			for (Node p1n2: equalN2forN1.keySet()) {
-				if (p1n1.getDEBUGnumber() < p1n2.getDEBUGnumber()) {
-					// compare two nodes N1 and N2 of same process only once
-					// i.e. either (p1n1=N1 and p1n2=N2) or (p1n1=N2 and p1n2=N2) -- not both
-					// N1 and N2 may not be equal -- relation would be null then
-					Node p2n2 = equalN2forN1.get(p1n2);
-					Operation op1 = pt1.getProcessType().getRelation(p1n1, p1n2);
-					Operation op2 = pt2.getProcessType().getRelation(p2n1, p2n2);
-					if (op1 != op2)
-						return false;
-				}
+			// compare two nodes N1 and N2 of same process only once -- j loops from i+1 on
+			for (int j = i + 1; j < equalN2forN1.length; j++) {
+				if (equalN2forN1[j] == NO_MATCH)
+					continue;
+				Node p1n2 = pt1.basicNodes[j];
+				Node p2n2 = pt2.basicNodes[equalN2forN1[j]];
+				Operation op1 = ptype1.getRelation(p1n1, p1n2);
+				Operation op2 = ptype2.getRelation(p2n1, p2n2);
+				if (op1 != op2)
+					return false;
 			}
 
 		}
 		return true;
 	}
 
+	/**
+	 * @return true if pt1 and pt2 match exactly
+	 */
+	public boolean matchesExactly() {
+		NDC.push("matchesExactly");
+
+		if (pt1.getFingerprint() != pt2.getFingerprint()) {
+			logger.debug("Different fingerprints.");
+			NDC.pop();
+			return false;
+		}
+
+		if (!haveEqualBasicNonSilentActivities()) {
+			logger.debug("Different basic non-silent activities.");
+			NDC.pop();
+			return false;
+		} else {
+			logger.debug("Equal basic non-silent activities.");
+		}
+
+		if (!haveEqualProcessType()) {
+			logger.debug("Different process type.");
+			NDC.pop();
+			return false;
+		} else {
+			logger.debug("Same process type.");
+		}
+
+		if (!haveSameMultiplicities()) {
+			logger.debug("Different multiplicities.");
+			NDC.pop();
+			return false;
+		} else {
+			logger.debug("Same multiplicities.");
+		}
+
+		logger.debug("match");
+		NDC.pop();
+		return true;
+	}
+
+	/**
+	 * @return true if pt1 is a plugin for pt2 (pt1 |> pt2)
+	 */
+	public boolean isPlugin() {
+		NDC.push("isPluginForProcessTree");
+
+		if (!operationsOfP2areSubsetOfOperationsOfP1()) {
+			logger.debug("Provided operations of P2 are not a subset of the provided operations of P1.");
+			NDC.pop();
+			return false;
+		} else {
+			logger.debug("Operations of P2 are a subset of the operations of P1.");
+		}
+
+		if (!invokationsOfP1areSubsetOfInvokationsOfP2()) {
+			logger.debug("Invoked operations of P1 are not a subset of the invoked operations of P2.");
+			NDC.pop();
+			return false;
+		} else {
+			logger.debug("P1 does a subset of invokations.");
+		}
+
+		if (!commonActivitiesAgreeOnProcessTypesAndMultiplicity()) {
+			logger.debug("P1 and P2 do not agree on types and multiplicities.");
+			NDC.pop();
+			return false;
+		} else {
+			logger.debug("P1 and P2 agree on types and multiplicities.");
+		}
+
+		NDC.pop();
+		return true;
+	}
+
 	private boolean isIgnoredOperation(Operation op) {
 		return ((op == Operation.S1R) || (op == Operation.SAR)); // || (op == Operation.P1R) || (op == Operation.PAR));
 	}
@@ -224,11 +298,97 @@ public class Comparator {
 		return parallelRelations;
 	}
 
+	/**
+	 * Determines the relations of the nodes without an equal node in the other process
+	 * As these relations cannot be matched, they are extra relations
+	 */
+	private int getExtraRelations() {
+		if (extraRelations >= 0) {
+			return extraRelations;
+		}
+
+		// logging in the loops below is expensive even if disabled due to String.format
+		boolean debug = logger.isDebugEnabled();
+
+		int extra = 0;
+		for (int i = 0; i < pt1.basicNodes.length; i++) {
+			Node n11 = pt1.basicNodes[i];
+			if (equalN2forN1[i] == NO_MATCH) {
+				// all relations starting from n11 are extra relations as there is no equal node in pt2
+				// as a node has a relation to all other nodes, but not to itself, we use the total number of nodes and subtract 1
+				// This is right for the sequence relation as either the sequence or the reverse relation is there
+				// But the parallel relation is also there from the opposite node.
+				// Therefore we have to count them, too
+				int parallelRelations = getNumberOfParallelRelations(n11, pt1);
+				if (debug)
+					logger.debug(String.format("No matching node for %s found. Adding %d extra relations plus %d extra parallel relations.", n11, pt1.basicNodes.length-1, parallelRelations));
+				extra += (pt1.basicNodes.length-1);
+				extra += parallelRelations;
+			}
+		}
+
+		// process tree 2 may contain activities not contained in process tree 1. These have to be counted, too
+		logger.debug("Checking extra nodes of pt2");
+		for (int i = 0; i < pt2.basicNodes.length; i++) {
+			Node n2 = pt2.basicNodes[i];
+			if (debug)
+				logger.debug(String.format("n2: %s",n2));
+			if (equalN1forN2[i] == NO_MATCH) {
+				// see comments above for n21==null
+				int parallelRelations = getNumberOfParallelRelations(n2, pt2);
+				if (debug)
+					logger.debug(String.format("No matching node for %s found. Adding %d extra relations plus %d extra parallel relations.", n2, pt2.basicNodes.length-1, parallelRelations));
+				extra += (pt2.basicNodes.length-1);
+				extra += parallelRelations;
+			}
+		}
+
+		extraRelations = extra;
+		return extraRelations;
+	}
+
+	/**
+	 * Upper bound of MetricResult.MI2, available without comparing the relations
+	 *
+	 * Assumes that all relations between matching nodes match and are parallel (i.e., are counted twice)
+	 */
+	public double getUpperBoundOfMI2() {
+		if (matchedCount1==0) {
+			return 0.0;
+		}
+		long pairs = ((long) matchedCount1) * (matchedCount1 - 1) / 2;
+		return getUpperBoundOfMI2(0, 0, 2*pairs);
+	}
+
+	/**
+	 * @param matchingRelations the matching relations so far (exact and loop insensitive)
+	 * @param totalRelations the total relations so far, without extra relations
+	 * @param remainingWeight the maximum number of relations still to be counted. The ratio is maximal if all of them match.
+	 */
+	private double getUpperBoundOfMI2(long matchingRelations, long totalRelations, long remainingWeight) {
+		return ((double) (matchingRelations + remainingWeight)) / ((double) (totalRelations + getExtraRelations() + remainingWeight));
+	}
+
 	/**
 	 * This method calculates both loop-sensitive and loop-insensitive matching
 	 */
 	public MetricResult getDegreeOfInexactMatching() {
-		if (equalN2forN1.size()==0) {
+		return getDegreeOfInexactMatching(Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Calculates the degree of matching only if MI2 can reach minMI2
+	 *
+	 * After each node of pt1, an upper bound of MI2 is determined from the relations counted so far.
+	 * The remaining relations are assumed to match. If the bound drops below minMI2, the calculation is aborted.
+	 *
+	 * @return the same result as getDegreeOfInexactMatching() if its MI2 is at least minMI2. Otherwise, null or that result.
+	 */
+	public MetricResult getDegreeOfInexactMatching(double minMI2) {
+		// logging in the loops below is expensive even if disabled due to String.format
+		boolean debug = logger.isDebugEnabled();
+
+		if (matchedCount1==0) {
 			// P1 and P2 have no activities in common
 			// return 0 as result
 			return new MetricResult();
@@ -250,36 +410,38 @@ public class Comparator {
 		int totalRelations = 0;
 
 		// extra: not included in the set of matching activities
-		int extraRelations = 0;
+		// process tree 2 may contain activities not contained in process tree 1. These have to be counted, too
+		int extraRelations = getExtraRelations();
+
+		// matched nodes of pt1 not visited by the outer loop yet
+		int remainingMatched = matchedCount1;
 
 		for (int i = 0; i < pt1.basicNodes.length; i++) {
 			Node n11 = pt1.basicNodes[i];
-			logger.debug(String.format("n1: %s", n11));
-			Node n21 = equalN2forN1.get(n11);
-			if (n21 == null) {
-				// all relations starting from n11 are extra relations as there is no equal node in pt2
-				// as a node has a relation to all other nodes, but not to itself, we use the total number of nodes and subtract 1
-				// This is right for the sequence relation as either the sequence or the reverse relation is there
-				// But the parallel relation is also there from the opposite node.
-				// Therefore we have to count them, too
-				int parallelRelations = getNumberOfParallelRelations(n11, pt1);
-				logger.debug(String.format("No matching node for %s found. Adding %d extra relations plus %d extra parallel relations.", n11, pt1.basicNodes.length-1, parallelRelations));
-				extraRelations += (pt1.basicNodes.length-1);
-				extraRelations += parallelRelations;
+			if (debug)
+				logger.debug(String.format("n1: %s", n11));
+			int i2 = equalN2forN1[i];
+			if (i2 == NO_MATCH) {
+				// all relations starting from n11 are extra relations (see getExtraRelations())
 			} else {
+				Node n21 = pt2.basicNodes[i2];
 				// analyze all nodes n12 after n11 as partner
 				// the node before has been treated in an iteration before
 				for (int j = i + 1; j < pt1.basicNodes.length; j++) {
 					Node n12 = pt1.basicNodes[j];
-					logger.debug(String.format("n2: %s", n12));
-					Node n22 = equalN2forN1.get(n12);
-					if (n22 == null) {
+					if (debug)
+						logger.debug(String.format("n2: %s", n12));
+					int j2 = equalN2forN1[j];
+					if (j2 == NO_MATCH) {
 						// no matching node for n12 found
 						// this will be treated when hitting n22 in the outer loop
 						// then, the branch (n21 == null) will be hit.
-						logger.debug(String.format("No matching node for %s found. Will be treated later.", n12));
+						if (debug)
+							logger.debug(String.format("No matching node for %s found. Will be treated later.", n12));
 					} else {
-						logger.debug(String.format("Handling %s==%s and %s==%s", n11, n21, n12, n22));
+						Node n22 = pt2.basicNodes[j2];
+						if (debug)
+							logger.debug(String.format("Handling %s==%s and %s==%s", n11, n21, n12, n22));
 						Operation op1 = pt1.getProcessType().getRelation(n11, n12);
 						Operation op2 = pt2.getProcessType().getRelation(n21, n22);
 
@@ -296,9 +458,10 @@ public class Comparator {
 						}
 
 						if (op1.equals(op2)) {
-							logger.debug(String.format(
-									"Checking (%s/%s/%s) with (%s/%s/%s): match",
-									n11, n12, op1, n21, n22, op2));
+							if (debug)
+								logger.debug(String.format(
+										"Checking (%s/%s/%s) with (%s/%s/%s): match",
+										n11, n12, op1, n21, n22, op2));
 							// S1R and SAR also included
 							// if two nodes (n11, n12) in pt1 are in reverse-sequence relation and
 							// the equal two nodes (n21, n22) in pt2 are also in reverse-sequence relation,
@@ -341,9 +504,10 @@ public class Comparator {
 								break;
 							}
 							if (loopInsenstiveMatch) {
-								logger.debug(String.format(
-										"Checking (%s/%s/%s) with (%s/%s/%s): loop insenstive match",
-										n11, n12, op1, n21, n22, op2));
+								if (debug)
+									logger.debug(String.format(
+											"Checking (%s/%s/%s) with (%s/%s/%s): loop insenstive match",
+											n11, n12, op1, n21, n22, op2));
 								loopInsenstiveMatchingRelations++;
 								if (op1.isParallel()) {
 									loopInsenstiveMatchingRelations++;
@@ -355,31 +519,30 @@ public class Comparator {
 								if (op2.isParallel()) {
 									totalRelations++;
 								}
-								logger.debug(String
-										.format("Checking (%s/%s/%s) with (%s/%s/%s): no match. Adding extra relation(s)",
-												n11, n12, op1, n21, n22, op2));
+								if (debug)
+									logger.debug(String
+											.format("Checking (%s/%s/%s) with (%s/%s/%s): no match. Adding extra relation(s)",
+													n11, n12, op1, n21, n22, op2));
 							}
 						}
 					}
 				}
-			}
-		}
 
-		// process tree 2 may contain activities not contained in process tree 1. These have to be counted, too
-		logger.debug("Checking extra nodes of pt2");
-		for (int i = 0; i < pt2.basicNodes.length; i++) {
-			Node n2 = pt2.basicNodes[i];
-			logger.debug(String.format("n2: %s",n2));
-			Node n1 = equalN1forN2.get(n2);
-			if (n1 == null) {
-				// see comments above for n21==null
-				int parallelRelations = getNumberOfParallelRelations(n2, pt2);
-				logger.debug(String.format("No matching node for %s found. Adding %d extra relations plus %d extra parallel relations.", n2, pt2.basicNodes.length-1, parallelRelations));
-				extraRelations += (pt2.basicNodes.length-1);
-				extraRelations += parallelRelations;
+				remainingMatched--;
+				if (minMI2 > Double.NEGATIVE_INFINITY) {
+					// each pair of the remaining matched nodes adds at most two matching relations
+					long remainingPairs = ((long) remainingMatched) * (remainingMatched - 1) / 2;
+					double bound = getUpperBoundOfMI2(exactMatchingRelations + loopInsenstiveMatchingRelations, totalRelations, 2*remainingPairs);
+					if (bound < minMI2) {
+						if (debug)
+							logger.debug(String.format("Upper bound %f of MI2 below %f. Aborting.", bound, minMI2));
+						return null;
+					}
+				}
 			}
 		}
 
+
 		MetricResult res = new MetricResult();
 		res.M1 = ((double)exactMatchingRelations)/((double)totalRelations);
 		res.M2 = ((double)exactMatchingRelations)/((double)totalRelations+extraRelations);
@@ -0,0 +1,189 @@
+package outsourcing.processtree;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the Comparators of one ProcessTree (pt1) with other trees (pt2)
+ *
+ * - bounded: at most getCapacity() entries. The least recently used entry is evicted first.
+ * - weak keys: the cache does not keep pt2 reachable. Entries of collected trees are removed.
+ * - soft values: a Comparator references pt2. A strongly referenced Comparator would keep the weak key
+ *   reachable forever. Thus, the Comparators are referenced softly and may be collected if memory is low.
+ *
+ * Trees are compared by identity. All methods are thread-safe.
+ */
+public class ComparatorCache {
+
+	public final static int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Weak reference to pt2, compared by identity of the referent.
+	 * A cleared key is only equal to itself, thus it can still be removed.
+	 */
+	private static class Key extends WeakReference<ProcessTree> {
+		private final int hash;
+
+		Key(ProcessTree pt, ReferenceQueue<ProcessTree> queue) {
+			super(pt, queue);
+			this.hash = System.identityHashCode(pt);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			ProcessTree pt = get();
+			return (pt != null) && (pt == ((Key) o).get());
+		}
+	}
+
+	private final ReferenceQueue<ProcessTree> queue = new ReferenceQueue<ProcessTree>();
+
+	// access order: the first entry is the least recently used one
+	private final LinkedHashMap<Key, SoftReference<Comparator>> map = new LinkedHashMap<Key, SoftReference<Comparator>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<Comparator>> eldest) {
+			if (size() > capacity) {
+				evictions++;
+				return true;
+			} else {
+				return false;
+			}
+		}
+	};
+
+	private int capacity;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long collected = 0;
+
+	public ComparatorCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ComparatorCache(int capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * @return the cached Comparator for pt2, null if there is none
+	 */
+	public synchronized Comparator get(ProcessTree pt2) {
+		expungeCollected();
+		Key key = new Key(pt2, null);
+		SoftReference<Comparator> ref = map.get(key);
+		Comparator comp = (ref == null) ? null : ref.get();
+		if (comp == null) {
+			misses++;
+			if (ref != null) {
+				// the Comparator has been collected
+				map.remove(key);
+				collected++;
+			}
+		} else {
+			hits++;
+		}
+		return comp;
+	}
+
+	public synchronized void put(ProcessTree pt2, Comparator comp) {
+		expungeCollected();
+		map.put(new Key(pt2, queue), new SoftReference<Comparator>(comp));
+	}
+
+	/**
+	 * Removes the entries whose key has been collected
+	 */
+	private void expungeCollected() {
+		Key key;
+		while ((key = (Key) queue.poll()) != null) {
+			if (map.remove(key) != null) {
+				collected++;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		// the cleared keys are not needed anymore
+		while (queue.poll() != null) {
+			// discard
+		}
+	}
+
+	public synchronized int size() {
+		expungeCollected();
+		return map.size();
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the maximum number of entries. Evicts the least recently used entries exceeding the new capacity.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity has to be at least 1");
+		}
+		this.capacity = capacity;
+		Iterator<Key> it = map.keySet().iterator();
+		while (map.size() > capacity) {
+			it.next();
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * @return the number of calls of get() returning a Comparator
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of calls of get() returning null
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of entries removed because the capacity was exceeded
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * @return the number of entries removed because their tree or Comparator has been collected
+	 */
+	public synchronized long getCollectedCount() {
+		return collected;
+	}
+
+	public synchronized String toString() {
+		return String.format("size=%d capacity=%d hits=%d misses=%d evictions=%d collected=%d", map.size(), capacity, hits, misses, evictions, collected);
+	}
+
+}
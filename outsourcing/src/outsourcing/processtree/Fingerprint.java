@@ -0,0 +1,86 @@
+package outsourcing.processtree;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Canonical 64 bit fingerprint of a process type
+ *
+ * Covers the multiset of labels with their multiplicities and the relations of all pairs of basic nodes.
+ * The fingerprint does not depend on the order of the nodes. Thus, if Comparator.matchesExactly() holds,
+ * both processes have the same fingerprint. Different fingerprints mean that there is no exact match.
+ *
+ * The labels are hashed by their names, not by their ids in the LabelDictionary.
+ * Thus, the fingerprint is the same in each run and can be used as key of persistent caches.
+ */
+final class Fingerprint {
+	private static Logger logger = Logger.getLogger(Fingerprint.class);
+
+	private final static long FNV_OFFSET = 0xCBF29CE484222325L;
+	private final static long FNV_PRIME = 0x100000001B3L;
+
+	private Fingerprint() {
+	}
+
+	/**
+	 * Takes O(n^2) time for n basic nodes
+	 */
+	static long compute(ProcessTree pt) {
+		Node[] basicNodes = pt.basicNodes;
+		ProcessType processType = pt.getProcessType();
+
+		long[] labelHash = new long[basicNodes.length];
+		for (int i = 0; i < basicNodes.length; i++) {
+			labelHash[i] = hashLabel(basicNodes[i]);
+		}
+
+		// the sum of the mixed elements is independent of the order of the elements
+		long res = mix(basicNodes.length);
+		for (int i = 0; i < basicNodes.length; i++) {
+			res += mix(labelHash[i] ^ mix(basicNodes[i].getMult().ordinal()));
+			for (int j = i + 1; j < basicNodes.length; j++) {
+				Operation op = processType.getRelation(basicNodes[i], basicNodes[j]);
+				if (op == null) {
+					// only at illformed processes
+					logger.debug(String.format("%s/%s: no relation", basicNodes[i], basicNodes[j]));
+					continue;
+				}
+				long forward = hashRelation(labelHash[i], labelHash[j], op);
+				long backward = hashRelation(labelHash[j], labelHash[i], op.getReverse());
+				// (l1, l2, op) and (l2, l1, op.getReverse()) are the same relation
+				res += Math.min(forward, backward);
+			}
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug(String.format("fingerprint: %016x", res));
+		return res;
+	}
+
+	private static long hashLabel(Node n) {
+		if (n.getLabelId() == Node.NO_LABEL_ID) {
+			return 0;
+		}
+		// FNV-1a of the name of the label, independent of String.hashCode()
+		String s = n.getLabel().toString();
+		long h = FNV_OFFSET;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+	private static long hashRelation(long label1, long label2, Operation op) {
+		return mix(mix(label1) + label2 * 31 + op.ordinal());
+	}
+
+	/**
+	 * Finalizer of SplitMix64
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
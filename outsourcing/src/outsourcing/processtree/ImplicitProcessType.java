@@ -0,0 +1,125 @@
+package outsourcing.processtree;
+
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * Process type deriving the relation of two basic nodes on demand from the process tree
+ *
+ * Without control links, the relation of n1 and n2 is determined by the type and the multiplicity
+ * of their least common ancestor and - in case of a SEQ - by the ranks of the children of the LCA
+ * leading to n1 and n2. Relations induced by control links are stored as overrides.
+ *
+ * Memory is O(n log n) for the LCA data plus the number of link induced relations, instead of O(n^2).
+ * Each getRelation() call takes O(1).
+ */
+public class ImplicitProcessType extends ProcessType {
+	private static Logger logger = Logger.getLogger(ImplicitProcessType.class);
+
+	private final LCA<Node,DefaultEdge> lcaData;
+
+	// relations induced by control links
+	// key: (index of first node << 32) | index of second node, first node has the lower index
+	// value: first node op second node
+	private final HashMap<Long,Operation> linkRelations = new HashMap<Long,Operation>();
+
+	/**
+	 * @param lcaData LCA data of the process tree the basic nodes belong to
+	 */
+	public ImplicitProcessType(LCA<Node,DefaultEdge> lcaData) {
+		this.lcaData = lcaData;
+	}
+
+	private static Long key(int i, int j) {
+		return (((long) i) << 32) | j;
+	}
+
+	@Override
+	public void setRelation(Node n1, Node n2, Operation op1, Operation op2) {
+		assertModifiable();
+		if (op1.getReverse() != op2) {
+			logger.error(String.format("%s/%s: %s and %s are not reverse to each other. Storing %s only.", n1, n2, op1, op2, op1));
+		}
+
+		int i = n1.getIndex();
+		int j = n2.getIndex();
+		if (i < j) {
+			linkRelations.put(key(i, j), op1);
+		} else if (i > j) {
+			linkRelations.put(key(j, i), op1.getReverse());
+		} else {
+			logger.error(String.format("No relation of %s to itself can be stored", n1));
+		}
+	}
+
+	@Override
+	public Operation getRelation(Node n1, Node n2) {
+		if (n1 == n2) {
+			// a node is not related to itself
+			return null;
+		}
+
+		Node lca = lcaData.getLCA(n1, n2);
+		Type type = lca.getType();
+		if (type.equals(Type.EXOR) || type.equals(Type.IXOR)) {
+			// even if a control link induced a sequential relation,
+			// this relation is changed to an exclusive relation
+			switch (lca.getMult()) {
+			case ONE:
+				return Operation.X1;
+			default:
+				return Operation.XA;
+			}
+		}
+
+		Operation res = getLinkRelation(n1, n2);
+		if (res != null) {
+			return res;
+		}
+
+		if (type.equals(Type.AND)) {
+			switch (lca.getMult()) {
+			case ONE:
+				return Operation.P1;
+			default:
+				return Operation.PA;
+			}
+		} else if (type.equals(Type.SEQ)) {
+			Node seqN1 = lcaData.getLCAChild(n2, n1);
+			Node seqN2 = lcaData.getLCAChild(n1, n2);
+			boolean n1beforen2 = (seqN1.getRank() < seqN2.getRank());
+
+			switch (lca.getMult()) {
+			case ONE:
+				return (n1beforen2 ? Operation.S1 : Operation.S1R);
+			default:
+				return (n1beforen2 ? Operation.SA : Operation.SAR);
+			}
+		} else {
+			logger.error("unexpected case BASIC/OTHER");
+			return null;
+		}
+	}
+
+	private Operation getLinkRelation(Node n1, Node n2) {
+		int i = n1.getIndex();
+		int j = n2.getIndex();
+		if (i < j) {
+			return linkRelations.get(key(i, j));
+		} else {
+			Operation res = linkRelations.get(key(j, i));
+			if (res != null) {
+				res = res.getReverse();
+			}
+			return res;
+		}
+	}
+
+	@Override
+	boolean isRelationSet(Node n1, Node n2) {
+		return (getLinkRelation(n1, n2) != null);
+	}
+
+}
@@ -1,28 +1,43 @@
 package outsourcing.processtree;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 
-import org.eclipse.ui.internal.ide.misc.DisjointSet;
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.Graphs;
 
 /**
  * Determination of least common ancestors
  *
- * Implementation of http://en.wikipedia.org/wiki/Tarjan%27s_off-line_least_common_ancestors_algorithm
+ * Reduction of LCA to range minimum queries (RMQ) on the Euler tour of the tree.
+ * The RMQs are answered by a sparse table.
+ *
+ * Preprocessing takes O(n log n) time and memory, each query takes O(1).
+ * The previously used Tarjan's off-line algorithm required a |V| x |V| table.
+ *
+ * See http://en.wikipedia.org/wiki/Lowest_common_ancestor#Reduction_to_RMQ
  */
 public class LCA<V,E> {
 	//private static Logger logger = Logger.getLogger(LCA.class);
 
-	private DisjointSet<V> s = new DisjointSet<V>();
+	// the vertices in the order of the Euler tour (length 2|V|-1)
+	private List<V> euler;
 
-	private V[][] lca;
+	// depth of the vertex at the respective position of the Euler tour
+	private int[] depth;
 
-	private HashMap<V,Integer> nodeToNumber;
+	// position of the first occurrence of a vertex in the Euler tour
+	private HashMap<V,Integer> firstOccurrence;
 
-	private HashMap<V,V> ancestor = new HashMap<V,V>();
-	private HashSet<V> coloredBlack = new HashSet<V>();
+	// sparseTable[k][i] is the position of the vertex with minimal depth in euler[i .. i+2^k-1]
+	// sparseTable prefers the leftmost position, sparseTableRight the rightmost position
+	private int[][] sparseTable;
+	private int[][] sparseTableRight;
+
+	// floor(log2(i)) for i in 1..euler.size()
+	private int[] log2;
 
 	private DirectedGraph<V, E> graph;
 
@@ -31,56 +46,154 @@ public class LCA<V,E> {
 	 * @param graph the graph to work on
 	 * @param root the root node to start with
 	 */
-	// we have an unchecked conversion from Object[][] to V[][] as arrays of generics cannot be constructed
-	// This warning is suppressed
-	@SuppressWarnings("unchecked")
 	public LCA(DirectedGraph<V,E> graph, V root) {
 		this.graph = graph;
 
-		lca = (V[][]) new Object[this.graph.vertexSet().size()][this.graph.vertexSet().size()];
+		int n = this.graph.vertexSet().size();
+		int m = Math.max(2*n-1, 1);
 
-		// assign numbers to nodes
-		nodeToNumber = new HashMap<V,Integer>(this.graph.vertexSet().size());
-		int num = 0;
-		for (V v: this.graph.vertexSet()) {
-			nodeToNumber.put(v, num);
-			num++;
-		}
+		euler = new ArrayList<V>(m);
+		depth = new int[m];
+		firstOccurrence = new HashMap<V,Integer>(n);
 
-		TarjanOLCA(root);
+		buildEulerTour(root);
+		buildSparseTable();
 	}
 
 	public V getLCA(V u, V v) {
 		//logger.debug(String.format("Getting LCA from (%1s, %2s)", u, v));
-		int uNum = nodeToNumber.get(u);
-		int vNum = nodeToNumber.get(v);
-		return (lca[uNum][vNum]);
+		int uPos = firstOccurrence.get(u);
+		int vPos = firstOccurrence.get(v);
+		if (uPos <= vPos) {
+			return euler.get(leftmostMin(uPos, vPos));
+		} else {
+			return euler.get(leftmostMin(vPos, uPos));
+		}
+	}
+
+	/**
+	 * Determines the child of the LCA of u and v, which is an ancestor of v (or v itself)
+	 *
+	 * Used to compare the ranks of u and v below a SEQ node without climbing up the tree
+	 *
+	 * @return the child of getLCA(u, v) on the path to v, null if v is the LCA of u and v
+	 */
+	public V getLCAChild(V u, V v) {
+		int uPos = firstOccurrence.get(u);
+		int vPos = firstOccurrence.get(v);
+		if (uPos < vPos) {
+			// after the last visit of the LCA in [uPos, vPos], the tour descends into the child containing v
+			int pos = rightmostMin(uPos, vPos);
+			if (euler.get(pos) == v) {
+				return null;
+			}
+			return euler.get(pos+1);
+		} else if (uPos > vPos) {
+			// before the first visit of the LCA in [vPos, uPos], the tour returns from the child containing v
+			int pos = leftmostMin(vPos, uPos);
+			if (pos == vPos) {
+				return null;
+			}
+			return euler.get(pos-1);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the leftmost position of minimal depth in euler[from .. to]
+	 */
+	private int leftmostMin(int from, int to) {
+		// two overlapping ranges of length 2^k cover [from, to]
+		int k = log2[to - from + 1];
+		int left = sparseTable[k][from];
+		int right = sparseTable[k][to - (1 << k) + 1];
+		return (depth[left] <= depth[right]) ? left : right;
 	}
 
-	private void TarjanOLCA(V u) {
-		//logger.debug(String.format("Handling %s", u));
-		s.makeSet(u);
-		ancestor.put(u, u);
-		for (V v: Graphs.successorListOf(graph, u)) {
-			TarjanOLCA(v);
-			s.union(u, v);
-			V n = s.findSet(u);
-			ancestor.put(n, u);
+	/**
+	 * @return the rightmost position of minimal depth in euler[from .. to]
+	 */
+	private int rightmostMin(int from, int to) {
+		int k = log2[to - from + 1];
+		int left = sparseTableRight[k][from];
+		int right = sparseTableRight[k][to - (1 << k) + 1];
+		return (depth[right] <= depth[left]) ? right : left;
+	}
+
+	/**
+	 * Iterative DFS - process trees of large processes may be deeper than the call stack allows
+	 */
+	private void buildEulerTour(V root) {
+		ArrayList<V> stack = new ArrayList<V>();
+		ArrayList<Iterator<V>> children = new ArrayList<Iterator<V>>();
+
+		stack.add(root);
+		children.add(Graphs.successorListOf(graph, root).iterator());
+		visit(root, 0);
+
+		while (!stack.isEmpty()) {
+			int top = stack.size()-1;
+			Iterator<V> it = children.get(top);
+			if (it.hasNext()) {
+				V child = it.next();
+				stack.add(child);
+				children.add(Graphs.successorListOf(graph, child).iterator());
+				visit(child, top+1);
+			} else {
+				stack.remove(top);
+				children.remove(top);
+				if (top > 0) {
+					// we are back at the parent
+					visit(stack.get(top-1), top-1);
+				}
+			}
+		}
+	}
+
+	private void visit(V v, int d) {
+		int pos = euler.size();
+		euler.add(v);
+		depth[pos] = d;
+		if (!firstOccurrence.containsKey(v)) {
+			firstOccurrence.put(v, pos);
+		}
+	}
+
+	private void buildSparseTable() {
+		int m = euler.size();
+
+		log2 = new int[m+1];
+		for (int i=2; i<=m; i++) {
+			log2[i] = log2[i/2] + 1;
+		}
+
+		int levels = log2[m] + 1;
+		sparseTable = new int[levels][];
+		sparseTableRight = new int[levels][];
+		int[] identity = new int[m];
+		for (int i=0; i<m; i++) {
+			identity[i] = i;
 		}
-		coloredBlack.add(u);
-		for (V v: graph.vertexSet()) {
-			if (coloredBlack.contains(v)) {
-				// there is no Pair class in Java. Thus, we do it manually.
-				//  we did not add any order in u,v. Therefore, we have to check for both u and v whether there is data available
-				V lcaV =  ancestor.get((s.findSet(v)));
-				//logger.debug(String.format("Tarjan's Least Common Ancestor of %s and %s is %s", u, v, lcaV));
-
-				int uNum = nodeToNumber.get(u);
-				int vNum = nodeToNumber.get(v);
-
-				lca[uNum][vNum] = lcaV;
-				lca[vNum][uNum] = lcaV;
+		sparseTable[0] = identity;
+		sparseTableRight[0] = identity;
+		for (int k=1; k<levels; k++) {
+			int half = 1 << (k-1);
+			int len = m - (1 << k) + 1;
+			int[] prev = sparseTable[k-1];
+			int[] prevRight = sparseTableRight[k-1];
+			int[] cur = new int[len];
+			int[] curRight = new int[len];
+			for (int i=0; i<len; i++) {
+				int left = prev[i];
+				int right = prev[i+half];
+				cur[i] = (depth[left] <= depth[right]) ? left : right;
+				left = prevRight[i];
+				right = prevRight[i+half];
+				curRight[i] = (depth[right] <= depth[left]) ? right : left;
 			}
+			sparseTable[k] = cur;
+			sparseTableRight[k] = curRight;
 		}
 	}
 }
@@ -0,0 +1,66 @@
+package outsourcing.processtree;
+
+import java.util.Arrays;
+
+/**
+ * Lookup from label id (see LabelDictionary) to the index (Node.getIndex()) of the basic node carrying the label
+ *
+ * Built once per process type determination. Each Comparator then determines the corresponding nodes
+ * without building a hash map of the other process.
+ *
+ * If several nodes carry the same label, the node with the highest index is returned.
+ */
+class LabelLookup {
+
+	// label id in the upper half, index in the lower half. Sorted.
+	private final long[] keys;
+
+	private final boolean uniqueLabels;
+
+	LabelLookup(Node[] basicNodes) {
+		keys = new long[basicNodes.length];
+		for (int i = 0; i < basicNodes.length; i++) {
+			keys[i] = (((long) basicNodes[i].getLabelId()) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		boolean unique = true;
+		for (int i = 1; i < keys.length; i++) {
+			if (label(keys[i-1]) == label(keys[i])) {
+				unique = false;
+				break;
+			}
+		}
+		uniqueLabels = unique;
+	}
+
+	private static int label(long key) {
+		return (int) (key >> 32);
+	}
+
+	/**
+	 * @return the index of the node carrying the label, -1 if there is none
+	 */
+	int indexOf(int labelId) {
+		// the first key of the next label
+		int pos = Arrays.binarySearch(keys, ((long) labelId + 1) << 32);
+		if (pos < 0) {
+			pos = -pos - 1;
+		}
+		// the last key before belongs to the highest index of labelId (if present)
+		pos--;
+		if ((pos >= 0) && (label(keys[pos]) == labelId)) {
+			return (int) keys[pos];
+		} else {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if no two nodes carry the same label
+	 */
+	boolean hasUniqueLabels() {
+		return uniqueLabels;
+	}
+
+}
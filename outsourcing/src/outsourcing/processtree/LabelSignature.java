@@ -0,0 +1,57 @@
+package outsourcing.processtree;
+
+/**
+ * Fixed-width bit signature (Bloom filter) of a set of label ids (see LabelDictionary)
+ *
+ * Each label sets HASHES of the WIDTH bits. If a label is contained in a set, its bits are set in the signature
+ * of the set. Thus, if the signature of A has a bit not set in the signature of B, A is not a subset of B.
+ * The reverse does not hold: isSubsetOf() may return true although A is not a subset of B.
+ *
+ * Used to reject the subset tests of Comparator.isPlugin() without building a Comparator.
+ */
+final class LabelSignature {
+
+	// number of longs
+	private final static int LENGTH = 4;
+	private final static int WIDTH = LENGTH * 64;
+	private final static int HASHES = 2;
+
+	private final long[] bits = new long[LENGTH];
+
+	/**
+	 * Adds the labels of the given nodes. Only called while the signature is built.
+	 */
+	void addAll(Iterable<Node> nodes) {
+		for (Node n: nodes) {
+			long h = mix(n.getLabelId());
+			for (int k = 0; k < HASHES; k++) {
+				// each hash takes 8 bits of h
+				int bit = (int) ((h >>> (8 * k)) & (WIDTH - 1));
+				bits[bit >>> 6] |= 1L << (bit & 63);
+			}
+		}
+	}
+
+	/**
+	 * @return false if the set of this signature is no subset of the set of the other signature.
+	 *         true if it may be a subset.
+	 */
+	boolean isSubsetOf(LabelSignature other) {
+		for (int i = 0; i < LENGTH; i++) {
+			if ((bits[i] & ~other.bits[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finalizer of SplitMix64, spreads consecutive label ids over all bits
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
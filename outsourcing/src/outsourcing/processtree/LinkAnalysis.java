@@ -0,0 +1,323 @@
+package outsourcing.processtree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * Determination of the sequential relations induced by control links
+ *
+ * The links transitively form a sequential relation:
+ * If there is a path of links from s to t, all sequential predecessors of s (including s)
+ * are executed before all sequential successors of t (including t and its descendants).
+ * The predecessors and successors are determined up to the LCA of s and t.
+ *
+ * Implementation:
+ *  1. Reachability in the graph of links is computed once in reverse topological order.
+ *     Each row is a bitset (long[]) over the nodes of the link graph.
+ *  2. For each pair (s, t) with t reachable from s, the basic nodes succeeding t are ORed
+ *     into the rows of the basic nodes preceding s. These rows are bitsets over the index of
+ *     the basic nodes (see Node.getIndex()).
+ *  3. The relations are set row by row.
+ */
+class LinkAnalysis {
+	private static final Logger logger = Logger.getLogger(LinkAnalysis.class);
+
+	private final CompactTree tree;
+	private final DirectedGraph<Node, DefaultEdge> flowGraph;
+	private final LCA<Node, DefaultEdge> lcaData;
+	private final Node[] basicNodes;
+
+	// number of longs required for a bitset over all basic nodes
+	private final int basicWords;
+
+	// successors of a basic node with index i, separated by the multiplicity of their LCA
+	// null if there are no link induced successors
+	private final long[][] successorsOne;
+	private final long[][] successorsArbitrary;
+
+	/**
+	 * A list of intervals of pre-order numbers (see CompactTree.numberNodes())
+	 * Each interval denotes a set of nodes, typically a subtree.
+	 * Reused across calls to avoid allocations.
+	 */
+	private static class PreOrderRanges {
+		int[] from = new int[8];
+		int[] to = new int[8];
+		int size = 0;
+
+		void clear() {
+			size = 0;
+		}
+
+		void add(int f, int t) {
+			if (size == from.length) {
+				int[] newFrom = new int[2*size];
+				int[] newTo = new int[2*size];
+				System.arraycopy(from, 0, newFrom, 0, size);
+				System.arraycopy(to, 0, newTo, 0, size);
+				from = newFrom;
+				to = newTo;
+			}
+			from[size] = f;
+			to[size] = t;
+			size++;
+		}
+	}
+
+	/**
+	 * @param tree the tree. Has to be numbered (CompactTree.numberNodes())
+	 * @param flowGraph the graph spanned by the links
+	 * @param lcaData LCA data of the tree
+	 * @param basicNodes the basic nodes. The index of each node has to be set.
+	 */
+	LinkAnalysis(CompactTree tree, DirectedGraph<Node, DefaultEdge> flowGraph, LCA<Node, DefaultEdge> lcaData, Node[] basicNodes) {
+		this.tree = tree;
+		this.flowGraph = flowGraph;
+		this.lcaData = lcaData;
+		this.basicNodes = basicNodes;
+		this.basicWords = (basicNodes.length + 63) >>> 6;
+		this.successorsOne = new long[basicNodes.length][];
+		this.successorsArbitrary = new long[basicNodes.length][];
+	}
+
+	/**
+	 * Sets all link induced relations in processType
+	 */
+	void apply(ProcessType processType) {
+		// number the nodes of the link graph
+		List<Node> flowNodes = new ArrayList<Node>(flowGraph.vertexSet());
+		int m = flowNodes.size();
+		HashMap<Node, Integer> flowIndex = new HashMap<Node, Integer>(m*2);
+		for (int i = 0; i < m; i++) {
+			flowIndex.put(flowNodes.get(i), i);
+		}
+
+		long[][] reach = computeReachability(flowNodes, flowIndex);
+
+		PreOrderRanges predsOfSource = new PreOrderRanges();
+		PreOrderRanges succsOfTarget = new PreOrderRanges();
+		long[] succBits = new long[basicWords];
+
+		for (int s = 0; s < m; s++) {
+			Node source = flowNodes.get(s);
+			long[] row = reach[s];
+			for (int w = 0; w < row.length; w++) {
+				long word = row[w];
+				while (word != 0) {
+					int t = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+
+					Node target = flowNodes.get(t);
+					Node lca = lcaData.getLCA(source, target);
+					if ((lca == source) || (lca == target)) {
+						// a link between an activity and one of its descendants - ill-formed
+						logger.error(String.format("Link path from %s to %s connects an activity with its descendant. Ignored.", source, target));
+						continue;
+					}
+
+					predsOfSource.clear();
+					succsOfTarget.clear();
+					determineSequentialPredecessors(source, lca, predsOfSource);
+					determineSequentialSuccessors(target, lca, succsOfTarget);
+
+					// all predecessors and successors are in different subtrees of the lca
+					// Thus, the lca is also the LCA of each pair of predecessor and successor
+					long[][] successors = (lca.getMult() == Mult.ONE) ? successorsOne : successorsArbitrary;
+
+					toBasicBitset(succsOfTarget, succBits);
+					for (int r = 0; r < predsOfSource.size; r++) {
+						for (int pre = predsOfSource.from[r]; pre <= predsOfSource.to[r]; pre++) {
+							Node n1 = tree.getNode(tree.getIdAtPre(pre));
+							if (n1.getType() == Type.BASIC) {
+								or(successors, n1.getIndex(), succBits);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// the rows are complete - set the relations
+		for (int i = 0; i < basicNodes.length; i++) {
+			setRow(processType, i, successorsOne[i], Operation.S1);
+			setRow(processType, i, successorsArbitrary[i], Operation.SA);
+		}
+	}
+
+	/**
+	 * Computes the transitive closure of the link graph
+	 *
+	 * @return reach[i] is the bitset of all nodes reachable from node i by at least one link
+	 */
+	private long[][] computeReachability(List<Node> flowNodes, HashMap<Node, Integer> flowIndex) {
+		int m = flowNodes.size();
+		int words = (m + 63) >>> 6;
+		long[][] reach = new long[m][words];
+
+		// topological order (Kahn)
+		int[] inDegree = new int[m];
+		for (int i = 0; i < m; i++) {
+			inDegree[i] = flowGraph.inDegreeOf(flowNodes.get(i));
+		}
+		int[] order = new int[m];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < m; i++) {
+			if (inDegree[i] == 0) {
+				order[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			int u = order[head++];
+			for (DefaultEdge e : flowGraph.outgoingEdgesOf(flowNodes.get(u))) {
+				int v = flowIndex.get(flowGraph.getEdgeTarget(e));
+				inDegree[v]--;
+				if (inDegree[v] == 0) {
+					order[tail++] = v;
+				}
+			}
+		}
+		if (tail < m) {
+			// BPEL forbids cycles of links. We ignore the nodes on cycles for the closure and just use their direct links.
+			logger.error("The links form a cycle. Transitivity is only partially considered.");
+			boolean[] ordered = new boolean[m];
+			for (int i = 0; i < tail; i++) {
+				ordered[order[i]] = true;
+			}
+			for (int i = 0; i < m; i++) {
+				if (!ordered[i]) {
+					order[tail++] = i;
+				}
+			}
+		}
+
+		// reverse topological order: all successors are complete before their predecessors are handled
+		for (int k = m-1; k >= 0; k--) {
+			int u = order[k];
+			long[] row = reach[u];
+			for (DefaultEdge e : flowGraph.outgoingEdgesOf(flowNodes.get(u))) {
+				int v = flowIndex.get(flowGraph.getEdgeTarget(e));
+				row[v >>> 6] |= 1L << (v & 63);
+				long[] rowV = reach[v];
+				for (int w = 0; w < words; w++) {
+					row[w] |= rowV[w];
+				}
+			}
+		}
+		return reach;
+	}
+
+	/**
+	 * Converts the basic nodes in the given ranges to a bitset over their indices
+	 */
+	private void toBasicBitset(PreOrderRanges ranges, long[] bits) {
+		for (int w = 0; w < bits.length; w++) {
+			bits[w] = 0;
+		}
+		for (int r = 0; r < ranges.size; r++) {
+			for (int pre = ranges.from[r]; pre <= ranges.to[r]; pre++) {
+				Node n = tree.getNode(tree.getIdAtPre(pre));
+				if (n.getType() == Type.BASIC) {
+					int j = n.getIndex();
+					bits[j >>> 6] |= 1L << (j & 63);
+				}
+			}
+		}
+	}
+
+	private void or(long[][] rows, int i, long[] bits) {
+		long[] row = rows[i];
+		if (row == null) {
+			row = new long[basicWords];
+			rows[i] = row;
+		}
+		for (int w = 0; w < basicWords; w++) {
+			row[w] |= bits[w];
+		}
+	}
+
+	/**
+	 * n1 op n2 for all n2 in row
+	 */
+	private void setRow(ProcessType processType, int i, long[] row, Operation op) {
+		if (row == null) {
+			return;
+		}
+		Node n1 = basicNodes[i];
+		for (int w = 0; w < row.length; w++) {
+			long word = row[w];
+			while (word != 0) {
+				int j = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				processType.setRelation(n1, basicNodes[j], op, op.getReverse());
+			}
+		}
+	}
+
+	/**
+	 * Determines the sequential successors of the given node
+	 * the given lca stops the recursion.
+	 *
+	 * @param res the intervals of the successors are added to this list. n and its descendants are included.
+	 */
+	private void determineSequentialSuccessors(Node n, Node lca, PreOrderRanges res) {
+		// all descendants are successors
+		res.add(tree.getPre(n.getId()), tree.getLastPre(n.getId()));
+
+		Node curN = n;
+		Node p = tree.getParent(n);
+		while (p != lca) {
+			if (p.getType().equals(Type.SEQ)) {
+				int rankCurN = tree.getRank(curN.getId());
+				for (int c = tree.getFirstChild(p.getId()); c != CompactTree.NONE; c = tree.getNextSibling(c)) {
+					if (tree.getRank(c) > rankCurN) {
+						// child is a child executed AFTER the child where the "recursion" came from
+						res.add(tree.getPre(c), tree.getLastPre(c));
+					}
+				}
+			} else {
+				// just climb up
+				// also at if -- the other branches of the if are irrelevant
+			}
+
+			curN = p;
+			p = tree.getParent(p);
+		}
+	}
+
+	/**
+	 * Determines the sequential predecessors of the given node
+	 * the given lca stops the recursion.
+	 *
+	 * @param res the intervals of the predecessors are added to this list. n is included, its descendants are not.
+	 */
+	private void determineSequentialPredecessors(Node n, Node lca, PreOrderRanges res) {
+		res.add(tree.getPre(n.getId()), tree.getPre(n.getId()));
+
+		Node curN = n;
+		Node p = tree.getParent(n);
+		while (p != lca) {
+			if (p.getType().equals(Type.SEQ)) {
+				int rankCurN = tree.getRank(curN.getId());
+				for (int c = tree.getFirstChild(p.getId()); c != CompactTree.NONE; c = tree.getNextSibling(c)) {
+					if (tree.getRank(c) < rankCurN) {
+						// child is a child executed BEFORE the child where the "recursion" came from
+						res.add(tree.getPre(c), tree.getLastPre(c));
+					}
+				}
+			} else {
+				// just climb up
+				// also at if -- the other branches of the if are irrelevant
+			}
+
+			curN = p;
+			p = tree.getParent(p);
+		}
+	}
+
+}
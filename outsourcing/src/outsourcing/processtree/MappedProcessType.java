@@ -0,0 +1,67 @@
+package outsourcing.processtree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only process type on the packed upper triangle of a MatrixProcessType, stored in a buffer
+ *
+ * Used by ProcessTreeFile: the buffer is a part of the memory-mapped file. Thus, the relations are not
+ * copied to the heap and are only read from the disk when they are accessed.
+ */
+class MappedProcessType extends ProcessType {
+
+	private final int size;
+
+	private final ByteBuffer relation;
+
+	/**
+	 * @param relation the packed upper triangle (see MatrixProcessType) starting at position 0
+	 */
+	MappedProcessType(int size, ByteBuffer relation) {
+		if (relation.capacity() < MatrixProcessType.getPackedLength(size)) {
+			throw new IllegalArgumentException(String.format("The relations of %d nodes do not fit into %d bytes", size, relation.capacity()));
+		}
+		this.size = size;
+		this.relation = relation;
+	}
+
+	private int getCode(long pos) {
+		// absolute get: the buffer may be shared by several threads
+		int b = relation.get((int) (pos >>> 1));
+		if ((pos & 1) == 0) {
+			return b & 0x0F;
+		} else {
+			return (b >>> 4) & 0x0F;
+		}
+	}
+
+	@Override
+	public void setRelation(Node n1, Node n2, Operation op1, Operation op2) {
+		throw new IllegalStateException("The process type of a tree read by ProcessTreeFile cannot be modified");
+	}
+
+	@Override
+	public Operation getRelation(Node n1, Node n2) {
+		int i = n1.getIndex();
+		int j = n2.getIndex();
+		Operation res;
+		if (i < j) {
+			res = MatrixProcessType.decode(getCode(MatrixProcessType.pairIndex(size, i, j)));
+		} else if (i > j) {
+			res = MatrixProcessType.decode(getCode(MatrixProcessType.pairIndex(size, j, i)));
+			if (res != null) {
+				res = res.getReverse();
+			}
+		} else {
+			// a node is not related to itself
+			res = null;
+		}
+		return res;
+	}
+
+	@Override
+	boolean isRelationSet(Node n1, Node n2) {
+		return (getRelation(n1, n2) != null);
+	}
+
+}
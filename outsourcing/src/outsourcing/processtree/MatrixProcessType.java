@@ -0,0 +1,137 @@
+package outsourcing.processtree;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process type storing the relation of each pair of basic nodes
+ *
+ * As the relation is either symmetric or reverse-symmetric, only the relation n1 op n2
+ * with index(n1) < index(n2) is stored. The relation for the other direction is derived
+ * by Operation.getReverse().
+ * Each relation is stored as 4 bit code (0: no relation, ordinal+1 otherwise), two codes per byte.
+ * For n nodes, this results in n*(n-1)/4 bytes instead of n*n references.
+ */
+public class MatrixProcessType extends ProcessType {
+	private static Logger logger = Logger.getLogger(MatrixProcessType.class);
+
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	private final int size;
+
+	// the upper triangle of the mapping from index x index to relation, packed row by row
+	// alternative solution: build a graph as shown in Figures 8,9,10 in the paper
+	private final byte[] relation;
+
+	public MatrixProcessType(Node[] nodes) {
+		size = nodes.length;
+		long length = getPackedLength(size);
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalStateException(String.format("Too many nodes (%d) for a relation matrix", size));
+		}
+
+		// a new array is filled with 0, which is the code for "no relation"
+		// we test for "null" to check whether a value has already been written to
+		relation = new byte[(int) length];
+	}
+
+	/**
+	 * @return the packed upper triangle (not copied). Used by ProcessTreeFile.
+	 */
+	byte[] getPackedRelations() {
+		return relation;
+	}
+
+	/**
+	 * @return the position of the pair (i,j) in the packed upper triangle, i < j
+	 */
+	private long pairIndex(int i, int j) {
+		return pairIndex(size, i, j);
+	}
+
+	/**
+	 * @return the position of the pair (i,j) in the packed upper triangle of size nodes, i < j
+	 */
+	static long pairIndex(int size, int i, int j) {
+		return ((long) i) * (2*size - i - 1) / 2 + (j - i - 1);
+	}
+
+	/**
+	 * @return the number of bytes of the packed upper triangle of size nodes
+	 */
+	static long getPackedLength(int size) {
+		long pairs = ((long) size) * (size-1) / 2;
+		return (pairs+1)/2;
+	}
+
+	private void setCode(long pos, int code) {
+		int b = (int) (pos >>> 1);
+		if ((pos & 1) == 0) {
+			relation[b] = (byte) ((relation[b] & 0xF0) | code);
+		} else {
+			relation[b] = (byte) ((relation[b] & 0x0F) | (code << 4));
+		}
+	}
+
+	private int getCode(long pos) {
+		int b = relation[(int) (pos >>> 1)];
+		if ((pos & 1) == 0) {
+			return b & 0x0F;
+		} else {
+			return (b >>> 4) & 0x0F;
+		}
+	}
+
+	@Override
+	public void setRelation(Node n1, Node n2, Operation op1, Operation op2) {
+		assertModifiable();
+		//logger.debug(String.format("setRelation of %s(%d) and %s(%d): %s and %s", n1, n1.getIndex(), n2, n2.getIndex(), op1, op2));
+		if (op1.getReverse() != op2) {
+			logger.error(String.format("%s/%s: %s and %s are not reverse to each other. Storing %s only.", n1, n2, op1, op2, op1));
+		}
+
+		int i = n1.getIndex();
+		int j = n2.getIndex();
+		if (i < j) {
+			setCode(pairIndex(i, j), op1.ordinal()+1);
+		} else if (i > j) {
+			setCode(pairIndex(j, i), op1.getReverse().ordinal()+1);
+		} else {
+			logger.error(String.format("No relation of %s to itself can be stored", n1));
+		}
+	}
+
+	@Override
+	public Operation getRelation(Node n1, Node n2) {
+		//logger.debug(String.format("getRelation() called with nodes %s and %s",n1,n2));
+		int i = n1.getIndex();
+		int j = n2.getIndex();
+		Operation res;
+		if (i < j) {
+			res = decode(getCode(pairIndex(i, j)));
+		} else if (i > j) {
+			res = decode(getCode(pairIndex(j, i)));
+			if (res != null) {
+				res = res.getReverse();
+			}
+		} else {
+			// a node is not related to itself
+			res = null;
+		}
+		//logger.debug(String.format("getRelation of %s(%d) and %s(%d): %s", n1, n1.getIndex(), n2, n2.getIndex(), res));
+		return res;
+	}
+
+	@Override
+	boolean isRelationSet(Node n1, Node n2) {
+		return (getRelation(n1, n2) != null);
+	}
+
+	static Operation decode(int code) {
+		if (code == 0) {
+			return null;
+		} else {
+			return OPERATIONS[code-1];
+		}
+	}
+
+}
@@ -26,6 +26,11 @@ public class Node {
 
 	private Label label;
 
+	// id of the label in the LabelDictionary, NO_LABEL_ID if the node is not a communication activity
+	private int labelId;
+
+	public final static int NO_LABEL_ID = -1;
+
 	private Type type;
 
 	private Mult mult;
@@ -41,10 +46,9 @@ public class Node {
 	// Alternative implementation (inspired by JGraphT): vertices.indexOf(a) -- vertices instanceof List<Node>
 	private int index = -1;
 
-	// for debugging purposes
-	private int DEBUGnumber;
-
-	private static int DEBUGhighestNumber = 0;
+	// dense id of the node in the tree it belongs to - used by CompactTree
+	// assigned by the tree, thus trees can be built concurrently. Also used for debugging output.
+	private int id = -1;
 
 	private Node() {
 	}
@@ -53,13 +57,31 @@ public class Node {
 		this.el = el;
 		this.status = null;
 		this.label = label;
+		if (label instanceof CommunicationConstructLabel) {
+			this.labelId = ((CommunicationConstructLabel) label).getId();
+		} else {
+			this.labelId = NO_LABEL_ID;
+		}
 		this.type = type;
 		this.mult = mult;
 		this.rank = rank;
 		this.level = level;
+	}
 
-		this.DEBUGnumber = DEBUGhighestNumber;
-		DEBUGhighestNumber++;
+	/**
+	 * Creates a node without BPEL element, e.g., when a serialized process tree is read
+	 */
+	public static Node fromLabel(Label label, Type type, Mult mult, int rank, int level) {
+		return new Node(null, label, type, mult, rank, level);
+	}
+
+	/**
+	 * @return a node with the same BPEL element, label and attributes, not contained in any tree
+	 */
+	Node copy() {
+		Node res = new Node(el, label, type, mult, rank, level);
+		res.status = status;
+		return res;
 	}
 
 	/**
@@ -94,6 +116,13 @@ public class Node {
 		return this.label;
 	}
 
+	/**
+	 * @return the id of the label in the LabelDictionary. Nodes with equal labels have equal ids.
+	 */
+	public int getLabelId() {
+		return this.labelId;
+	}
+
 	/**
 	 * @return Position in the sequence (in case the parent is a SEQ), 1 otherwise
 	 */
@@ -109,14 +138,17 @@ public class Node {
 	}
 
 	public String getDebugString() {
-		return(String.format("N%d -- Label: %s | Type: %s | Mult: %s | Rank: %d", DEBUGnumber, this.label.toString(), this.type, this.mult, this.rank));
+		return(String.format("N%d -- Label: %s | Type: %s | Mult: %s | Rank: %d", id, this.label.toString(), this.type, this.mult, this.rank));
 	}
 
 	public String toString() {
-		return(String.format("N%d", DEBUGnumber));
+		return(String.format("N%d", id));
 	}
 
-	public void setIndex(int index) {
+	/**
+	 * Set by the tree when the process type is determined or the tree is read (see ProcessTreeFile)
+	 */
+	void setIndex(int index) {
 		this.index = index;
 	}
 
@@ -128,6 +160,17 @@ public class Node {
 		return index;
 	}
 
+	void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return the id of the node in its process tree, -1 if the node has not been added to a tree
+	 */
+	public int getId() {
+		return id;
+	}
+
 	public int getLevel() {
 		return level;
 	}
@@ -138,15 +181,18 @@ public class Node {
 
 	public Status getStatus() {
 		// status does not change, therefore we can cache the status
-		// however, it is unlikely, that this function will be called more than once...
+		// ProcessTree.freeze() determines it, thus the nodes of a frozen tree are not written by this method
 		if (this.status == null) {
 			this.status = Helper.getStatus(this.getBPELel());
 		}
 		return this.status;
 	}
 
-	public int getDEBUGnumber() {
-		return DEBUGnumber;
+	/**
+	 * Sets the status of a node without BPEL element (see BPELStreamReader)
+	 */
+	void setStatus(Status status) {
+		this.status = status;
 	}
 
 }
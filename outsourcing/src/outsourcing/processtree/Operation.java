@@ -15,4 +15,23 @@ public enum Operation {
 	public boolean isParallel() {
 		return ((this == Operation.P1) || (this == Operation.PA));
 	}
+
+	/**
+	 * @return the operation op2 with n2 op2 n1 if n1 this n2 holds
+	 */
+	public Operation getReverse() {
+		switch (this) {
+		case S1:
+			return S1R;
+		case SA:
+			return SAR;
+		case S1R:
+			return S1;
+		case SAR:
+			return SA;
+		default:
+			// exclusive and parallel relations are symmetric
+			return this;
+		}
+	}
 }
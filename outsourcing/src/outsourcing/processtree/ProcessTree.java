@@ -1,16 +1,18 @@
 package outsourcing.processtree;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 
+import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.SimpleDirectedGraph;
-import org.jgrapht.traverse.DepthFirstIterator;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.NDC;
@@ -67,8 +69,8 @@ import de.uni_stuttgart.iaas.bpel.model.utilities.Utility;
  *
  * ProcessTree = (A,N,child,type,rank,label)
  *  * A: n.getLabel(), n \in N (with n.getType == BASIC)
- *  * N: graph - allNodes
- *  * child: graph
+ *  * N: tree - allNodes
+ *  * child: tree
  *  * type: n.getType()
  *  * rank: n.getRank()
  *  * label: n.getLabel()
@@ -77,40 +79,155 @@ import de.uni_stuttgart.iaas.bpel.model.utilities.Utility;
 public class ProcessTree  {
 	private static final Logger logger = Logger.getLogger(ProcessTree.class);
 
-	private SimpleDirectedGraph<Node, DefaultEdge> graph;
+	private CompactTree tree;
 	private Node root;
 
+	// JGraphT view on tree - required by LCA and the projections
+	private CompactTreeGraph treeGraph;
+
 	// stores the graph spanned by BPEL's links (<link>, <source>, <target>, ...)
 	private SimpleDirectedGraph<Node, DefaultEdge> flowGraph;
 
 	// mapping from activity to node - used for building flowGraph
-	public HashMap<Activity,Node> actToNode = new HashMap<Activity, Node>();
+	private Map<Activity,Node> actToNode = new HashMap<Activity, Node>();
 
-	private HashSet<Node> invokes = new HashSet<Node>();  // "In" in the paper
-	private HashSet<Node> receives = new HashSet<Node>(); // "Rc" in the paper
-	private HashSet<Node> replies = new HashSet<Node>();  // "Rp" in the paper
-	private HashSet<Node> allBasicNonSilentActivies = new HashSet<Node>(); // In cup Rc cup Rp in the paper
+	private Set<Node> invokes = new HashSet<Node>();  // "In" in the paper
+	private Set<Node> receives = new HashSet<Node>(); // "Rc" in the paper
+	private Set<Node> replies = new HashSet<Node>();  // "Rp" in the paper
+	private Set<Node> allBasicNonSilentActivies = new HashSet<Node>(); // In cup Rc cup Rp in the paper
 
 	public final static int RANK_DEFAULT = 0;
 	public final static int RANK_FIRSTCHILD = 1;
 
 	private ProcessType processType = null;
 
+	// true: the process type is derived on demand from the tree (ImplicitProcessType)
+	// false: the relation of each pair of basic nodes is stored (MatrixProcessType)
+	private final boolean implicitProcessType;
+
 	// a mapping from index to Node
 	// accessed by Comparator
-	public Node[] basicNodes;
+	Node[] basicNodes;
+
+	// lookup from label to index in basicNodes, used by Comparator
+	private LabelLookup labelLookup;
+
+	// signatures of the labels of all basic nodes, of the receives and replies, and of the invokes.
+	// Used to reject isPluginForProcessTree() without a Comparator.
+	private LabelSignature labelSignature;
+	private LabelSignature operationSignature;
+	private LabelSignature invocationSignature;
+
+	// see getFingerprint(). Computed on first use: the value is deterministic, thus concurrent computations do not harm.
+	private volatile long fingerprint;
+	private volatile boolean fingerprintValid = false;
 
 	private final static String newline = System.getProperty("line.separator");
 
-	private HashMap<ProcessTree,Comparator> comparatorCache = new HashMap<ProcessTree,Comparator>();
+	private final ComparatorCache comparatorCache = new ComparatorCache();
 
 	private BPELResource BPELresource;
 
+	// see freeze(). Written once, before the tree is handed to other threads.
+	private volatile boolean frozen = false;
+
 	public ProcessTree(BPELResource r) {
-		graph = new SimpleDirectedGraph<Node,DefaultEdge>(DefaultEdge.class);
+		this(r, false);
+	}
+
+	/**
+	 * Creates a tree with a determined process type, without BPEL model (see ProcessTreeFile)
+	 *
+	 * @param basicNodes the invokes, receives and replies. Their indexes have to be set. processType refers to the nodes by these indexes.
+	 * @param fingerprint see getFingerprint()
+	 */
+	ProcessTree(CompactTree tree, Node root, Node[] basicNodes, Set<Node> invokes, Set<Node> receives, Set<Node> replies, ProcessType processType, long fingerprint) {
+		this.implicitProcessType = false;
+		this.tree = tree;
+		this.treeGraph = new CompactTreeGraph(tree);
+		this.root = root;
+		this.BPELresource = null;
+		this.flowGraph = new SimpleDirectedGraph<Node,DefaultEdge>(DefaultEdge.class);
+
+		this.invokes.addAll(invokes);
+		this.receives.addAll(receives);
+		this.replies.addAll(replies);
+		allBasicNonSilentActivies.addAll(invokes);
+		allBasicNonSilentActivies.addAll(receives);
+		allBasicNonSilentActivies.addAll(replies);
+
+		this.basicNodes = basicNodes;
+		buildLabelIndexes();
+		this.processType = processType;
+		this.fingerprint = fingerprint;
+		this.fingerprintValid = true;
+	}
+
+	/**
+	 * Creates a view on base (see createView())
+	 */
+	private ProcessTree(ProcessTree base) {
+		this.implicitProcessType = base.implicitProcessType;
+		this.BPELresource = base.BPELresource;
+		this.tree = base.tree.copy();
+		this.treeGraph = new CompactTreeGraph(tree);
+		this.root = base.root;
+
+		// the basic nodes get an index in each tree, thus they cannot be shared
+		Map<Node,Node> copies = new HashMap<Node,Node>(base.allBasicNonSilentActivies.size()*2);
+		for (Node n: base.allBasicNonSilentActivies) {
+			Node c = n.copy();
+			tree.replace(n, c);
+			copies.put(n, c);
+		}
+		addCopies(base.invokes, copies, invokes);
+		addCopies(base.receives, copies, receives);
+		addCopies(base.replies, copies, replies);
+		allBasicNonSilentActivies.addAll(copies.values());
+
+		this.flowGraph = new SimpleDirectedGraph<Node,DefaultEdge>(DefaultEdge.class);
+		for (Node n: base.flowGraph.vertexSet()) {
+			flowGraph.addVertex(getCopy(n, copies));
+		}
+		for (DefaultEdge e: base.flowGraph.edgeSet()) {
+			flowGraph.addEdge(getCopy(base.flowGraph.getEdgeSource(e), copies), getCopy(base.flowGraph.getEdgeTarget(e), copies));
+		}
+	}
+
+	private static void addCopies(Set<Node> nodes, Map<Node,Node> copies, Set<Node> res) {
+		for (Node n: nodes) {
+			res.add(copies.get(n));
+		}
+	}
+
+	private static Node getCopy(Node n, Map<Node,Node> copies) {
+		Node c = copies.get(n);
+		return (c == null) ? n : c;
+	}
+
+	/**
+	 * Creates an empty tree without BPEL model. The nodes are added by BPELStreamReader.
+	 */
+	ProcessTree(boolean implicitProcessType) {
+		this.implicitProcessType = implicitProcessType;
+		this.tree = new CompactTree();
+		this.treeGraph = new CompactTreeGraph(tree);
+		this.BPELresource = null;
+		this.flowGraph = new SimpleDirectedGraph<Node,DefaultEdge>(DefaultEdge.class);
+	}
+
+	/**
+	 * @param r the BPEL process to build the tree from
+	 * @param implicitProcessType true if the process type should not be stored as matrix, but derived on demand from the tree.
+	 *        Memory is then O(n + links) instead of O(n^2), which enables matching of very large processes.
+	 */
+	public ProcessTree(BPELResource r, boolean implicitProcessType) {
+		this.implicitProcessType = implicitProcessType;
+		tree = new CompactTree();
+		treeGraph = new CompactTreeGraph(tree);
 		this.BPELresource = r;
 		root = new Node(r.getProcess(), Type.OTHER, Mult.ONE, RANK_DEFAULT, 0);
-		graph.addVertex(root);
+		tree.addNode(root);
 
 		flowGraph = new SimpleDirectedGraph<Node,DefaultEdge>(DefaultEdge.class);
 
@@ -135,20 +252,17 @@ public class ProcessTree  {
 		Node n = null;
 		if (act instanceof Invoke) {
 			n = new Node((Invoke) act, mult, rank, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			invokes.add(n);
 			handleLinks((Activity) act, n);
 		} else if (act instanceof Receive) {
 			n = new Node((Receive) act, mult, rank, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			receives.add(n);
 			handleLinks((Activity) act, n);
 		} else if (act instanceof Reply) {
 			n = new Node((Reply) act, mult, rank, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			replies.add(n);
 			handleLinks((Activity) act, n);
 		} else if (act instanceof Pick) {
@@ -161,8 +275,7 @@ public class ProcessTree  {
 			} else {
 				n = new Node(act, Type.IXOR, mult, rank, level);
 			}
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			handleLinks((Activity) act, n);
 
 			Pick pick = (Pick) act;
@@ -181,8 +294,7 @@ public class ProcessTree  {
 				} else {
 					// create the sequence as described in EG2007 page 4
 					Node seq = new Node(null, Type.SEQ, mult, RANK_DEFAULT, level+1);
-					graph.addVertex(seq);
-					graph.addEdge(n, seq);
+					tree.addChild(n, seq);
 
 					// the nesting in the sequence is done in the branch for onMessage in "handleActivity"
 					handleActivity(itMessage.next(), seq, mult, RANK_FIRSTCHILD);
@@ -197,8 +309,7 @@ public class ProcessTree  {
 
 				Node seq = new Node(null, Type.SEQ, mult, RANK_DEFAULT, level+1);
 				// create the sequence
-				graph.addVertex(seq);
-				graph.addEdge(n, seq);
+				tree.addChild(n, seq);
 
 				// the nesting in the sequence is done in the branch for onMessage in "handleActivity"
 				handleActivity(itAlarm.next(), seq, mult, RANK_FIRSTCHILD);
@@ -206,8 +317,7 @@ public class ProcessTree  {
 		} else if (act instanceof OnMessage) {
 			OnMessage om = (OnMessage) act;
 			n = new Node(om, mult, RANK_FIRSTCHILD, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			receives.add(n);
 			handleActivity(om.getActivity(), parent, mult, RANK_FIRSTCHILD+1);
 		} else if (act instanceof OnAlarm) {
@@ -218,8 +328,7 @@ public class ProcessTree  {
 			handleActivity(oa.getActivity(), parent, mult, RANK_FIRSTCHILD);
 		} else if (act instanceof Sequence) {
 			n = new Node(act, Type.SEQ, mult, rank, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			handleLinks((Activity) act, n);
 
 			Sequence seq = (Sequence) act;
@@ -232,8 +341,7 @@ public class ProcessTree  {
 			}
 		} else if (act instanceof Flow) {
 			n = new Node(act, Type.AND, mult, rank, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			handleLinks((Activity) act, n);
 
 			Flow f = (Flow) act;
@@ -245,8 +353,7 @@ public class ProcessTree  {
 			}
 		} else if ((act instanceof While) || (act instanceof RepeatUntil) || (act instanceof ForEach)) {
 			n = new Node(act, Type.OTHER, mult, rank, level);
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			handleLinks((Activity) act, n);
 
 			Activity child;
@@ -270,8 +377,7 @@ public class ProcessTree  {
 				n = new Node(act, Type.IXOR, mult, rank, level);
 			}
 
-			graph.addVertex(n);
-			graph.addEdge(parent, n);
+			tree.addChild(parent, n);
 			handleLinks((Activity) act, n);
 
 			If aIf = (If) act;
@@ -358,90 +464,27 @@ public class ProcessTree  {
 			basicNodes[i] = v;
 			i++;
 		}
-	}
-
-	private Set<Node> getDescendants(Node n) {
-		HashSet<Node> res = new HashSet<Node>();
-		for (DefaultEdge e : graph.outgoingEdgesOf(n)) {
-			Node t = graph.getEdgeTarget(e);
-			res.add(t);
-			Set<Node> r = getDescendants(t);
-			res.addAll(r);
-		}
-		return res;
-	}
-
-	/**
-	 * Determines the sequential successors of the given node
-	 * the given lca stops the recursion.
-	 */
-	private Set<Node> determineSequentialSuccessors(Node n, Node lca) {
-		HashSet<Node> res = new HashSet<Node>();
-
-		// all descendants are successors
-		res.addAll(getDescendants(n));
-
-		Node curN = n;
-		Node p = getParent(n);
-		while (p != lca) {
-			if (p.getType().equals(Type.SEQ)) {
-				int rankCurN = curN.getRank();
-				Set<DefaultEdge> edges = graph.outgoingEdgesOf(p);
-				for (DefaultEdge e: edges) {
-					Node seqChild = graph.getEdgeTarget(e);
-					if (seqChild.getRank() > rankCurN) {
-						// child is a child executed AFTER the child where the "recursion" came from
-						res.addAll(getDescendants(seqChild));
-						res.add(seqChild);
-					}
-				}
-			} else {
-				// just climb up
-				// also at if -- the other branches of the if are irrelevant
-			}
-
-			curN = p;
-			p = getParent(p);
-		}
 
-		return res;
+		buildLabelIndexes();
 	}
 
 	/**
-	 * Determines the sequential predecessors of the given node
-	 * the given lca stops the recursion.
+	 * Builds the lookup and the signatures of the labels of basicNodes
 	 */
-	private Set<Node> determineSequentialPredecessors(Node n, Node lca) {
-		HashSet<Node> res = new HashSet<Node>();
-
-		Node curN = n;
-		Node p = getParent(n);
-		while (p != lca) {
-			if (p.getType().equals(Type.SEQ)) {
-				int rankCurN = curN.getRank();
-				Set<DefaultEdge> edges = graph.outgoingEdgesOf(p);
-				for (DefaultEdge e: edges) {
-					Node seqChild = graph.getEdgeTarget(e);
-					if (seqChild.getRank() < rankCurN) {
-						// child is a child executed BEFORE the child where the "recursion" came from
-						res.addAll(getDescendants(seqChild));
-						res.add(seqChild);
-					}
-				}
-			} else {
-				// just climb up
-				// also at if -- the other branches of the if are irrelevant
-			}
-
-			curN = p;
-			p = getParent(p);
-		}
-
-		return res;
+	private void buildLabelIndexes() {
+		labelLookup = new LabelLookup(basicNodes);
+
+		labelSignature = new LabelSignature();
+		labelSignature.addAll(allBasicNonSilentActivies);
+		operationSignature = new LabelSignature();
+		operationSignature.addAll(receives);
+		operationSignature.addAll(replies);
+		invocationSignature = new LabelSignature();
+		invocationSignature.addAll(invokes);
+
+		fingerprintValid = false;
 	}
 
-
-
 	/**
 	 * Determine the processType of this processTree
 	 * This method also builds data structures to enable the Comparator to compare two trees
@@ -455,53 +498,38 @@ public class ProcessTree  {
 	 *      Normally, the WHILE loop would be removed as it has one parent and one child. (Alex Algol #3)
 	 */
 	public void determineProcesType() {
+		assertModifiable();
+		if (processType instanceof MappedProcessType) {
+			// the links of the BPEL process are not available anymore
+			throw new IllegalStateException("The process type of a tree read by ProcessTreeFile cannot be determined again");
+		}
+
 		//Dominators<Node,DefaultEdge> dom = new Dominators<Node, DefaultEdge>(graph, root);
 		//we don't need the dominators as we work on a *tree* and not on a flowgraph.
 		//  the control links are handled differently
 
-		LCA<Node,DefaultEdge> lcaData = new LCA<Node,DefaultEdge>(this.graph, this.root);
+		LCA<Node,DefaultEdge> lcaData = new LCA<Node,DefaultEdge>(this.treeGraph, this.root);
 
 		rebuildNodeIndex();
 
 		int maxI = basicNodes.length-1;
 
-		processType = new ProcessType(basicNodes);
+		if (implicitProcessType) {
+			processType = new ImplicitProcessType(lcaData);
+		} else {
+			processType = new MatrixProcessType(basicNodes);
+		}
 
 		// in case there are links between activities,
 		// the links transitively form a sequential relation
 		if (flowGraph.edgeSet().size() > 0) {
-			Set<DefaultEdge> edgeSet = flowGraph.edgeSet();
-			for (DefaultEdge edge : edgeSet) {
-				Node source = flowGraph.getEdgeSource(edge);
-				Node target = flowGraph.getEdgeTarget(edge);
-				if (processType.getRelation(source, target) == null) {
-					// the processType has not been set by another run of this loop yet
-
-					Node lca = lcaData.getLCA(source, target);
-
-					Set<Node> predsOfSource = determineSequentialPredecessors(source, lca);
-					Set<Node> succsOfTarget = determineSequentialSuccessors(target, lca);
-
-					// source and target have to get a relation assigned, too
-					predsOfSource.add(source);
-					succsOfTarget.add(target);
-
-					for (Node n1: predsOfSource) {
-						for (Node n2: succsOfTarget) {
-							Node lcaOfN1N2 = lcaData.getLCA(n1, n2);
-							switch (lcaOfN1N2.getMult()) {
-							case ONE:
-								processType.setRelation(n1, n2, Operation.S1, Operation.S1R);
-								break;
-							case ARBITRARY:
-								processType.setRelation(n1, n2, Operation.SA, Operation.SAR);
-								break;
-							}
+			tree.numberNodes(root);
+			new LinkAnalysis(tree, flowGraph, lcaData, basicNodes).apply(processType);
+		}
 
-						}
-					}
-				}
-			}
+		if (implicitProcessType) {
+			// all other relations are derived on demand
+			return;
 		}
 
 		// the paper defines the process type on labels(n)
@@ -547,14 +575,10 @@ public class ProcessTree  {
 							break;
 						}
 					} else if (type.equals(Type.SEQ)) {
-						// go up the hierarchy until the children of the sequence
-						int targetLevel = lca.getLevel() + 1;
-						Node seqN1 = n1;
-						Node seqN2 = n2;
-						while (seqN1.getLevel() > targetLevel)
-							seqN1 = getParent(seqN1);
-						while (seqN2.getLevel() > targetLevel)
-							seqN2 = getParent(seqN2);
+						// the children of the sequence leading to n1 and n2
+						// determined using the tree itself, as levels are not updated when a projection removes a node
+						Node seqN1 = lcaData.getLCAChild(n2, n1);
+						Node seqN2 = lcaData.getLCAChild(n1, n2);
 						boolean n1beforen2 = (seqN1.getRank() < seqN2.getRank());
 
 						switch (lca.getMult()) {
@@ -583,34 +607,97 @@ public class ProcessTree  {
 		}
 	}
 
-	private Node getParent(Node n) {
-		Set<DefaultEdge> inEdges = graph.incomingEdgesOf(n);
-		switch (inEdges.size()) {
-		case 0:
-			return null;
-		default:
-			logger.error(String.format("Node %1s has more than one incoming edge", n.toString()));
-		case 1:
-			return graph.getEdgeSource(inEdges.iterator().next());
+
+	/**
+	 * Creates a modifiable view on this tree, e.g., to perform projections without reloading the process
+	 * (see Projections.performOnView()).
+	 *
+	 * The view shares the BPEL model, the labels and the inner nodes with this tree. Only the basic nodes and the
+	 * arrays of the tree structure are copied. Modifications of the view do not change this tree and vice versa.
+	 * The process type of the view has to be determined.
+	 */
+	public ProcessTree createView() {
+		return new ProcessTree(this);
+	}
+
+	/**
+	 * Turns this finished tree into an immutable snapshot. Only valid after determineProcesType().
+	 *
+	 * The fingerprint and the status of the nodes are computed, the build data (links between activities)
+	 * is dropped and the tree, the sets of activities and the process type become read-only. Any number of
+	 * threads may compare the tree afterwards without synchronization. Modifications throw an
+	 * IllegalStateException (UnsupportedOperationException for the sets of activities).
+	 *
+	 * Calling freeze() on a frozen tree has no effect.
+	 */
+	public void freeze() {
+		if (frozen) {
+			return;
+		}
+		if (processType == null) {
+			throw new IllegalStateException("The process type has to be determined before the tree is frozen");
 		}
+		getFingerprint();
+		// Node.getStatus() determines the status on first use
+		for (int id = 0; id < tree.getIdBound(); id++) {
+			Node n = tree.getNode(id);
+			if ((n != null) && (n.getBPELel() != null)) {
+				n.getStatus();
+			}
+		}
+
+		actToNode = Collections.emptyMap();
+		invokes = Collections.unmodifiableSet(invokes);
+		receives = Collections.unmodifiableSet(receives);
+		replies = Collections.unmodifiableSet(replies);
+		allBasicNonSilentActivies = Collections.unmodifiableSet(allBasicNonSilentActivies);
+		tree.freeze();
+		processType.freeze();
+
+		frozen = true;
+	}
+
+	/**
+	 * @return true if freeze() has been called
+	 */
+	public boolean isFrozen() {
+		return frozen;
 	}
 
+	private void assertModifiable() {
+		if (frozen) {
+			throw new IllegalStateException("Process tree has been frozen");
+		}
+	}
 
 	public String toString() {
 		String res = "";
-        DepthFirstIterator<Node,DefaultEdge> iter = new DepthFirstIterator<Node, DefaultEdge>(graph);
-        while (iter.hasNext()) {
-            Node node = iter.next();
-            res = res.concat("== Node ");
-            res = res.concat(node.toString());
-            res = res.concat("==");
-            res = res.concat(newline);
-            res = res.concat(node.getDebugString());
-            res = res.concat(newline);
-            res = res.concat(graph.edgesOf(node).toString());
-            res = res.concat(newline);
-            res = res.concat(newline);
-        }
+		// depth first traversal of the tree
+		int id = root.getId();
+		while (id != CompactTree.NONE) {
+			Node node = tree.getNode(id);
+			res = res.concat("== Node ");
+			res = res.concat(node.toString());
+			res = res.concat("==");
+			res = res.concat(newline);
+			res = res.concat(node.getDebugString());
+			res = res.concat(newline);
+			res = res.concat(treeGraph.edgesOf(node).toString());
+			res = res.concat(newline);
+			res = res.concat(newline);
+
+			if (tree.getFirstChild(id) != CompactTree.NONE) {
+				id = tree.getFirstChild(id);
+			} else {
+				// go up until there is a next sibling
+				while ((id != CompactTree.NONE) && (tree.getNextSibling(id) == CompactTree.NONE)) {
+					id = tree.getParent(id);
+				}
+				if (id != CompactTree.NONE) {
+					id = tree.getNextSibling(id);
+				}
+			}
+		}
 
         if (this.processType == null) {
         	res = res.concat("ProcessType is null");
@@ -624,7 +711,7 @@ public class ProcessTree  {
 			SortedSet<Node> allBasicNonSilentActivitiesSorted = new TreeSet<Node>(new java.util.Comparator<Node>() {
 				@Override
 				public int compare(Node o1, Node o2) {
-					return o1.getDEBUGnumber() - o2.getDEBUGnumber();
+					return o1.getId() - o2.getId();
 				}
 			});
 			allBasicNonSilentActivitiesSorted.addAll(this.allBasicNonSilentActivies);
@@ -653,8 +740,12 @@ public class ProcessTree  {
 	}
 
 	/**
-	 * @return A comparator comparing this processTree to the processTree pt2
+	 * @return the cache of the Comparators of this tree with other trees, e.g., to change its capacity or to read its statistics
 	 */
+	public ComparatorCache getComparatorCache() {
+		return comparatorCache;
+	}
+
 	private Comparator getComparator(ProcessTree pt2) {
 		Comparator comp = comparatorCache.get(pt2);
 		if (comp == null) {
@@ -665,69 +756,44 @@ public class ProcessTree  {
 	}
 
 	public boolean matchesExactly(ProcessTree pt2) {
-		NDC.push("matchesExactly");
-		Comparator comp = getComparator(pt2);
-
-		if (!comp.haveEqualBasicNonSilentActivities()) {
-			logger.debug("Different basic non-silent activities.");
-			NDC.pop();
+		if (getFingerprint() != pt2.getFingerprint()) {
 			return false;
-		} else {
-			logger.debug("Equal basic non-silent activities.");
-		}
-
-		if (!comp.haveEqualProcessType()) {
-			logger.debug("Different process type.");
-			NDC.pop();
-			return false;
-		} else {
-			logger.debug("Same process type.");
 		}
+		return getComparator(pt2).matchesExactly();
+	}
 
-		if (!comp.haveSameMultiplicities()) {
-			logger.debug("Different multiplicities.");
-			NDC.pop();
-			return false;
-		} else {
-			logger.debug("Same multiplicities.");
+	/**
+	 * Canonical fingerprint of the labels, multiplicities and relations of the basic nodes (see Fingerprint).
+	 * Only valid after determineProcesType().
+	 *
+	 * Trees matching exactly have equal fingerprints. Equal fingerprints do not imply an exact match.
+	 * The fingerprint does not depend on the order of the nodes and is the same in each run.
+	 */
+	public long getFingerprint() {
+		if (!fingerprintValid) {
+			fingerprint = Fingerprint.compute(this);
+			fingerprintValid = true;
 		}
-
-		logger.debug("match");
-		NDC.pop();
-		return true;
+		return fingerprint;
 	}
 
 	public boolean isPluginForProcessTree(ProcessTree pt2) {
-		NDC.push("isPluginForProcessTree");
-
-		Comparator comp = getComparator(pt2);
-
-		if (!comp.operationsOfP2areSubsetOfOperationsOfP1()) {
-			logger.debug("Provided operations of P2 are not a subset of the provided operations of P1.");
-			NDC.pop();
-			return false;
-		} else {
-			logger.debug("Operations of P2 are a subset of the operations of P1.");
-		}
-
-		if (!comp.invokationsOfP1areSubsetOfInvokationsOfP2()) {
-			logger.debug("Invoked operations of P1 are not a subset of the invoked operations of P2.");
-			NDC.pop();
+		if (!mayBePluginForProcessTree(pt2)) {
 			return false;
-		} else {
-			logger.debug("P1 does a subset of invokations.");
-		}
-
-		if (!comp.commonActivitiesAgreeOnProcessTypesAndMultiplicity()) {
-			logger.debug("P1 and P2 do not agree on types and multiplicities.");
-			NDC.pop();
-			return false;
-		} else {
-			logger.debug("P1 and P2 agree on types and multiplicities.");
 		}
+		return getComparator(pt2).isPlugin();
+	}
 
-		NDC.pop();
-		return true;
+	/**
+	 * Checks the subset conditions of isPluginForProcessTree() on the label signatures only
+	 * (see Comparator.operationsOfP2areSubsetOfOperationsOfP1() and invokationsOfP1areSubsetOfInvokationsOfP2()).
+	 * Only valid after determineProcesType() of both trees.
+	 *
+	 * @return false if this tree is no plugin for pt2. true if it may be one.
+	 */
+	public boolean mayBePluginForProcessTree(ProcessTree pt2) {
+		return pt2.operationSignature.isSubsetOf(this.labelSignature)
+			&& this.invocationSignature.isSubsetOf(pt2.labelSignature);
 	}
 
 	public MetricResult getDegreeOfInexactMatching(ProcessTree pt2) {
@@ -738,10 +804,29 @@ public class ProcessTree  {
 		return res;
 	}
 
+	/**
+	 * @return a copy of the basic nodes in the order of their indexes (see Node.getIndex()). Only valid after determineProcesType().
+	 */
+	public Node[] getBasicNodes() {
+		return basicNodes.clone();
+	}
+
 	public Set<Node> getAllBasicNonSilentActivies() {
 		return this.allBasicNonSilentActivies;
 	}
 
+	LabelLookup getLabelLookup() {
+		return this.labelLookup;
+	}
+
+	/**
+	 * @return true if no two basic activities have the same label. Only valid after determineProcesType().
+	 *         Then, comparing this tree with another tree with unique labels gives the same degree of inexact matching in both directions.
+	 */
+	public boolean hasUniqueLabels() {
+		return this.labelLookup.hasUniqueLabels();
+	}
+
 	public ProcessType getProcessType() {
 		return this.processType;
 	}
@@ -763,8 +848,16 @@ public class ProcessTree  {
 	 *  Used for the aggregation stuff to MODIFY the tree
 	 **/
 
-	public SimpleDirectedGraph<Node, DefaultEdge> getTree() {
-		return graph;
+	/**
+	 * @return a JGraphT view on the tree. Modifications of the view are written through to the tree.
+	 *         They fail if the tree has been frozen.
+	 */
+	public DirectedGraph<Node, DefaultEdge> getTree() {
+		return treeGraph;
+	}
+
+	CompactTree getCompactTree() {
+		return tree;
 	}
 
 	public Node getRoot() {
@@ -777,9 +870,11 @@ public class ProcessTree  {
 	}
 
 	public void removeNode(Node n) {
+		assertModifiable();
+
 		// remove nodes from the tree
 		// also removes edges
-		this.getTree().removeVertex(n);
+		this.tree.remove(n);
 
 		// remove it from graph representing the control links
 		this.flowGraph.removeVertex(n);
@@ -793,6 +888,17 @@ public class ProcessTree  {
 		}
 	}
 
+	/**
+	 * Puts replacement at the position of n in the tree: replacement gets the parent and the children of n
+	 *
+	 * Only the tree is changed. n must not be a basic node or be connected by links.
+	 * If replacement is a basic node, it has to be added by addAsInvoke(), addAsReceive() or addAsReply() afterwards.
+	 */
+	public void replaceNode(Node n, Node replacement) {
+		assertModifiable();
+		this.tree.replace(n, replacement);
+	}
+
 	/**
 	 * Removes all given nodes from the tree and updates the data structures accordingly
 	 * (tree, flowGraph, sets -- ProcessType is NOT updated)
@@ -801,25 +907,68 @@ public class ProcessTree  {
 	 * BPEL activity itself is also NOT removed
 	 */
 	public void removeAllNodes(Set<Node> nodesToRemove) {
+		assertModifiable();
 		for (Node n: nodesToRemove) {
 			removeNode(n);
 		}
 	}
 
+	/**
+	 * Used by BPELStreamReader while building the tree
+	 */
+	void addRoot(Node n) {
+		assertModifiable();
+		this.root = n;
+		this.tree.addNode(n);
+	}
+
+	void addChild(Node parent, Node n) {
+		assertModifiable();
+		this.tree.addChild(parent, n);
+	}
+
+	void addInvoke(Node parent, Node n) {
+		assertModifiable();
+		this.tree.addChild(parent, n);
+		this.invokes.add(n);
+		this.allBasicNonSilentActivies.add(n);
+	}
+
+	void addReceive(Node parent, Node n) {
+		assertModifiable();
+		this.tree.addChild(parent, n);
+		this.receives.add(n);
+		this.allBasicNonSilentActivies.add(n);
+	}
+
+	void addReply(Node parent, Node n) {
+		assertModifiable();
+		this.tree.addChild(parent, n);
+		this.replies.add(n);
+		this.allBasicNonSilentActivies.add(n);
+	}
+
+	SimpleDirectedGraph<Node, DefaultEdge> getFlowGraph() {
+		return this.flowGraph;
+	}
+
 	public void addAsInvoke(Node n) {
-		this.graph.addVertex(n);
+		assertModifiable();
+		this.tree.addNode(n);
 		this.invokes.add(n);
 		this.allBasicNonSilentActivies.add(n);
 	}
 
 	public void addAsReceive(Node n) {
-		this.graph.addVertex(n);
+		assertModifiable();
+		this.tree.addNode(n);
 		this.receives.add(n);
 		this.allBasicNonSilentActivies.add(n);
 	}
 
 	public void addAsReply(Node n) {
-		this.graph.addVertex(n);
+		assertModifiable();
+		this.tree.addNode(n);
 		this.replies.add(n);
 		this.allBasicNonSilentActivies.add(n);
 	}
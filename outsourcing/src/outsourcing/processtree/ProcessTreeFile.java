@@ -0,0 +1,342 @@
+package outsourcing.processtree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import outsourcing.processtree.labels.CommunicationConstructLabel;
+import outsourcing.processtree.labels.EmptyLabel;
+
+/**
+ * Binary format of a process tree with a determined process type
+ *
+ * Reading a tree does not need the BPEL model: neither EMF nor the WSDL files are loaded.
+ * The file is memory-mapped. The relation matrix is not copied, but accessed in the mapped buffer
+ * (see MappedProcessType). The trees read can be matched, but not projected and their process type
+ * cannot be determined again.
+ *
+ * Format (big endian):
+ *   int MAGIC, int VERSION
+ *   int number of labels, labels: role, partner link type, operation (each: int length in bytes, -1 for null, UTF-8 bytes)
+ *   int number of nodes, nodes in pre-order, parents before their children, children in their order:
+ *     int parent (-1 for roots), byte type, byte mult, byte kind (KIND_*), int rank, int level,
+ *     int label (-1 if the node has no communication label), int index in basicNodes (-1 for other nodes)
+ *   long fingerprint, int number of basic nodes, long length, packed upper triangle of the relation matrix (see MatrixProcessType)
+ */
+public final class ProcessTreeFile {
+	private static Logger logger = Logger.getLogger(ProcessTreeFile.class);
+
+	/**
+	 * "PTTF" - process tree file
+	 */
+	public final static int MAGIC = 0x50545446;
+	private final static int VERSION = 1;
+
+	private final static byte KIND_OTHER = 0;
+	private final static byte KIND_INVOKE = 1;
+	private final static byte KIND_RECEIVE = 2;
+	private final static byte KIND_REPLY = 3;
+
+	private final static Type[] TYPES = Type.values();
+	private final static Mult[] MULTS = Mult.values();
+
+	private ProcessTreeFile() {
+	}
+
+	/**
+	 * Writes the tree and its process type
+	 *
+	 * @param pt the tree. Its process type has to be determined already.
+	 */
+	public static void write(ProcessTree pt, File file) throws IOException {
+		if (pt.getProcessType() == null) {
+			throw new IllegalStateException("The process type has to be determined before the tree can be written");
+		}
+		CompactTree tree = pt.getCompactTree();
+		List<Node> nodes = getNodesInPreOrder(tree, pt.getRoot());
+
+		// interned labels: label id -> position in the label table
+		HashMap<Integer, Integer> labelPositions = new HashMap<Integer, Integer>();
+		List<CommunicationConstructLabel> labels = new ArrayList<CommunicationConstructLabel>();
+		for (Node n: nodes) {
+			if ((n.getLabelId() != Node.NO_LABEL_ID) && !labelPositions.containsKey(n.getLabelId())) {
+				labelPositions.put(n.getLabelId(), labels.size());
+				labels.add((CommunicationConstructLabel) n.getLabel());
+			}
+		}
+
+		byte[] relations = getPackedRelations(pt);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(labels.size());
+			for (CommunicationConstructLabel l: labels) {
+				writeString(out, l.getRole());
+				writeString(out, l.getPartnerLinkType());
+				writeString(out, l.getOperation());
+			}
+
+			// position of each node in the file, by node id
+			int[] position = new int[tree.getIdBound()];
+			int basicNodesWritten = 0;
+			out.writeInt(nodes.size());
+			for (int i = 0; i < nodes.size(); i++) {
+				Node n = nodes.get(i);
+				position[n.getId()] = i;
+				int parent = tree.getParent(n.getId());
+				out.writeInt((parent == CompactTree.NONE) ? -1 : position[parent]);
+				out.writeByte(n.getType().ordinal());
+				out.writeByte(n.getMult().ordinal());
+				out.writeByte(getKind(pt, n));
+				out.writeInt(n.getRank());
+				out.writeInt(n.getLevel());
+				out.writeInt((n.getLabelId() == Node.NO_LABEL_ID) ? -1 : labelPositions.get(n.getLabelId()));
+				if (pt.getAllBasicNonSilentActivies().contains(n)) {
+					out.writeInt(n.getIndex());
+					basicNodesWritten++;
+				} else {
+					out.writeInt(-1);
+				}
+			}
+			if (basicNodesWritten != pt.basicNodes.length) {
+				throw new IllegalStateException(String.format("%d of %d basic nodes are not contained in the tree", pt.basicNodes.length - basicNodesWritten, pt.basicNodes.length));
+			}
+
+			out.writeLong(pt.getFingerprint());
+			out.writeInt(pt.basicNodes.length);
+			out.writeLong(relations.length);
+			out.write(relations);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return all nodes of the tree: first the nodes reachable from root, then the nodes detached from root (e.g., by projections).
+	 *         Each part in pre-order.
+	 */
+	private static List<Node> getNodesInPreOrder(CompactTree tree, Node root) {
+		List<Node> res = new ArrayList<Node>(tree.getNodeCount());
+		addSubtreeInPreOrder(tree, root.getId(), res);
+		for (int id = 0; id < tree.getIdBound(); id++) {
+			if ((tree.getNode(id) != null) && (id != root.getId()) && (tree.getParent(id) == CompactTree.NONE)) {
+				addSubtreeInPreOrder(tree, id, res);
+			}
+		}
+		return res;
+	}
+
+	private static void addSubtreeInPreOrder(CompactTree tree, int subtreeRoot, List<Node> res) {
+		int id = subtreeRoot;
+		while (id != CompactTree.NONE) {
+			res.add(tree.getNode(id));
+			if (tree.getFirstChild(id) != CompactTree.NONE) {
+				id = tree.getFirstChild(id);
+			} else {
+				// go up until there is a next sibling
+				while ((id != subtreeRoot) && (tree.getNextSibling(id) == CompactTree.NONE)) {
+					id = tree.getParent(id);
+				}
+				id = (id == subtreeRoot) ? CompactTree.NONE : tree.getNextSibling(id);
+			}
+		}
+	}
+
+	private static byte getKind(ProcessTree pt, Node n) {
+		if (pt.getInvokeActivities().contains(n)) {
+			return KIND_INVOKE;
+		} else if (pt.getReceiveActivies().contains(n)) {
+			return KIND_RECEIVE;
+		} else if (pt.getReplyActivies().contains(n)) {
+			return KIND_REPLY;
+		} else {
+			return KIND_OTHER;
+		}
+	}
+
+	/**
+	 * @return the packed relation matrix of the process type. An ImplicitProcessType is evaluated for all pairs.
+	 */
+	private static byte[] getPackedRelations(ProcessTree pt) {
+		ProcessType processType = pt.getProcessType();
+		if (processType instanceof MatrixProcessType) {
+			return ((MatrixProcessType) processType).getPackedRelations();
+		}
+		Node[] basicNodes = pt.basicNodes;
+		MatrixProcessType matrix = new MatrixProcessType(basicNodes);
+		for (int i = 0; i < basicNodes.length; i++) {
+			for (int j = i + 1; j < basicNodes.length; j++) {
+				Operation op = processType.getRelation(basicNodes[i], basicNodes[j]);
+				if (op != null) {
+					matrix.setRelation(basicNodes[i], basicNodes[j], op, op.getReverse());
+				}
+			}
+		}
+		return matrix.getPackedRelations();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes("UTF-8");
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Reads a tree written by write()
+	 *
+	 * The returned tree keeps the file mapped until it is garbage collected.
+	 * The stored fingerprint is checked against the tree read, which takes O(n^2) time for n basic nodes.
+	 *
+	 * @throws IOException if the file cannot be read, is no process tree file or has a stale fingerprint
+	 */
+	public static ProcessTree read(File file) throws IOException {
+		MappedByteBuffer buf;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid after the channel has been closed
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		try {
+			return read(buf);
+		} catch (RuntimeException e) {
+			// e.g., BufferUnderflowException or ArrayIndexOutOfBoundsException at truncated or damaged files
+			throw new IOException(String.format("%s is damaged: %s", file, e));
+		}
+	}
+
+	private static ProcessTree read(ByteBuffer buf) throws IOException {
+		if ((buf.remaining() < 8) || (buf.getInt() != MAGIC)) {
+			throw new IOException("No process tree file");
+		}
+		int version = buf.getInt();
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported version %d", version));
+		}
+
+		int labelCount = buf.getInt();
+		CommunicationConstructLabel[] labels = new CommunicationConstructLabel[labelCount];
+		for (int i = 0; i < labelCount; i++) {
+			String role = readString(buf);
+			String partnerLinkType = readString(buf);
+			String operation = readString(buf);
+			labels[i] = new CommunicationConstructLabel(role, partnerLinkType, operation);
+		}
+
+		CompactTree tree = new CompactTree();
+		int nodeCount = buf.getInt();
+		Node[] nodes = new Node[nodeCount];
+		List<Node> basicNodeList = new ArrayList<Node>();
+		Set<Node> invokes = new HashSet<Node>();
+		Set<Node> receives = new HashSet<Node>();
+		Set<Node> replies = new HashSet<Node>();
+		for (int i = 0; i < nodeCount; i++) {
+			int parent = buf.getInt();
+			Type type = TYPES[buf.get()];
+			Mult mult = MULTS[buf.get()];
+			byte kind = buf.get();
+			int rank = buf.getInt();
+			int level = buf.getInt();
+			int label = buf.getInt();
+			int index = buf.getInt();
+
+			Node n;
+			if (label == -1) {
+				n = Node.fromLabel(new EmptyLabel(), type, mult, rank, level);
+			} else {
+				n = Node.fromLabel(labels[label], type, mult, rank, level);
+			}
+			nodes[i] = n;
+			if (parent == -1) {
+				tree.addNode(n);
+			} else {
+				tree.addChild(nodes[parent], n);
+			}
+
+			if (index != -1) {
+				n.setIndex(index);
+				basicNodeList.add(n);
+				switch (kind) {
+				case KIND_INVOKE:
+					invokes.add(n);
+					break;
+				case KIND_RECEIVE:
+					receives.add(n);
+					break;
+				case KIND_REPLY:
+					replies.add(n);
+					break;
+				default:
+					throw new IOException(String.format("Basic node %d has no communication kind", i));
+				}
+			}
+		}
+		if (nodeCount == 0) {
+			throw new IOException("The tree has no root");
+		}
+
+		long fingerprint = buf.getLong();
+		int basicCount = buf.getInt();
+		if (basicCount != basicNodeList.size()) {
+			throw new IOException(String.format("%d basic nodes expected, %d found", basicCount, basicNodeList.size()));
+		}
+		Node[] basicNodes = new Node[basicCount];
+		for (Node n: basicNodeList) {
+			if (basicNodes[n.getIndex()] != null) {
+				throw new IOException(String.format("Index %d is used twice", n.getIndex()));
+			}
+			basicNodes[n.getIndex()] = n;
+		}
+
+		long length = buf.getLong();
+		if ((length != MatrixProcessType.getPackedLength(basicCount)) || (length > buf.remaining())) {
+			throw new IOException(String.format("Relation matrix of %d bytes does not fit %d basic nodes", length, basicCount));
+		}
+		ByteBuffer relations = buf.slice();
+		relations.limit((int) length);
+		ProcessType processType = new MappedProcessType(basicCount, relations);
+
+		logger.debug(String.format("read tree with %d nodes, %d basic nodes, %d labels", nodeCount, basicCount, labelCount));
+		ProcessTree pt = new ProcessTree(tree, nodes[0], basicNodes, invokes, receives, replies, processType, fingerprint);
+
+		// a stale fingerprint would make matchesExactly() reject trees matching exactly
+		long computed = Fingerprint.compute(pt);
+		if (computed != fingerprint) {
+			throw new IOException(String.format("Stale fingerprint %016x, the tree has %016x", fingerprint, computed));
+		}
+		return pt;
+	}
+
+	private static String readString(ByteBuffer buf) throws IOException {
+		int length = buf.getInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] b = new byte[length];
+		buf.get(b);
+		return new String(b, "UTF-8");
+	}
+
+}
@@ -1,42 +1,34 @@
 package outsourcing.processtree;
 
-import org.apache.log4j.Logger;
-
 /**
- * This class does NOT implement toString() as it stores an index to each node only and not the node itself
+ * The process type: a relation between each pair of basic nodes
+ *
+ * The relation is either symmetric (X1, XA, P1, PA) or reverse-symmetric (S1/S1R, SA/SAR).
+ *
+ * Implementations:
+ *  * MatrixProcessType: stores the relation of each pair of nodes
+ *  * ImplicitProcessType: derives the relation on demand from the process tree
+ *
+ * Implementations do NOT implement toString() as they store an index to each node only and not the node itself
  * toString() is emulated by ProcessTree.toString()
  */
-public class ProcessType {
-	private static Logger logger = Logger.getLogger(ProcessType.class);
-
-	// a mapping from index x index to relation
-	// alternative solution: build a graph as shown in Figures 8,9,10 in the paper
-	private Operation[][] relation;
-
-	public ProcessType(Node[] nodes) {
-		relation = new Operation[nodes.length][nodes.length];
+public abstract class ProcessType {
 
-		// we have to null the values as we test for "null" to check whether a value has already been written to
-		for (int i=0; i<nodes.length; i++) {
-			for (int j=0; j<nodes.length; j++) {
-				relation[i][j] = null;
-			}
-		}
-	}
+	// see freeze()
+	private boolean frozen = false;
 
 	/**
 	 * Set relations between n1 and n2
 	 * n1 op1 n2  -  n2 op2 n1
+	 *
+	 * op2 has to be the reverse of op1 (see Operation.getReverse())
+	 *
 	 * @param n1
 	 * @param n2
 	 * @param op1
 	 * @param op2
 	 */
-	public void setRelation(Node n1, Node n2, Operation op1, Operation op2) {
-		//logger.debug(String.format("setRelation of %s(%d) and %s(%d): %s and %s", n1, n1.getIndex(), n2, n2.getIndex(), op1, op2));
-		relation[n1.getIndex()][n2.getIndex()] = op1;
-		relation[n2.getIndex()][n1.getIndex()] = op2;
-	}
+	public abstract void setRelation(Node n1, Node n2, Operation op1, Operation op2);
 
 	/**
 	 * Sets the (symmetric) relation op between n1 and n2
@@ -59,11 +51,27 @@ public class ProcessType {
 	 * @param n2
 	 * @return
 	 */
-	public Operation getRelation(Node n1, Node n2) {
-		//logger.debug(String.format("getRelation() called with nodes %s and %s",n1,n2));
-		Operation res = relation[n1.getIndex()][n2.getIndex()];
-		//logger.debug(String.format("getRelation of %s(%d) and %s(%d): %s", n1, n1.getIndex(), n2, n2.getIndex(), res));
-		return res;
+	public abstract Operation getRelation(Node n1, Node n2);
+
+	/**
+	 * @return true if a relation between n1 and n2 has been stored using setRelation
+	 */
+	abstract boolean isRelationSet(Node n1, Node n2);
+
+	/**
+	 * Makes the process type read-only. setRelation() throws an IllegalStateException afterwards.
+	 */
+	void freeze() {
+		frozen = true;
+	}
+
+	/**
+	 * Called by the implementations of setRelation()
+	 */
+	protected void assertModifiable() {
+		if (frozen) {
+			throw new IllegalStateException("Process type has been frozen");
+		}
 	}
 
 }
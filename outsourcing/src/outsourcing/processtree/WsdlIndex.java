@@ -0,0 +1,92 @@
+package outsourcing.processtree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The partner link types and their roles declared in a set of WSDL files
+ *
+ * Only the partnerLinkType and role elements are read. Messages, port types and schemas are skipped.
+ * Imports of WSDL files (location attribute of import elements) are followed.
+ */
+class WsdlIndex {
+	private static Logger logger = Logger.getLogger(WsdlIndex.class);
+
+	// partner link type name -> names of its roles
+	private final Map<String, Set<String>> roles = new HashMap<String, Set<String>>();
+
+	// canonical paths of the files read
+	private final Set<String> files = new HashSet<String>();
+
+	/**
+	 * Reads the given WSDL file and the WSDL files imported by it. Files already read are skipped.
+	 */
+	void add(File wsdl) throws IOException, XMLStreamException {
+		if (!files.add(wsdl.getCanonicalPath())) {
+			return;
+		}
+
+		InputStream in = new FileInputStream(wsdl);
+		try {
+			XMLStreamReader r = BPELStreamReader.createReader(in);
+			try {
+				String partnerLinkType = null;
+				while (r.hasNext()) {
+					int event = r.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						String ln = r.getLocalName();
+						if (ln.equals("partnerLinkType")) {
+							partnerLinkType = r.getAttributeValue(null, "name");
+							if (!roles.containsKey(partnerLinkType)) {
+								roles.put(partnerLinkType, new HashSet<String>());
+							}
+						} else if (ln.equals("role") && (partnerLinkType != null)) {
+							roles.get(partnerLinkType).add(r.getAttributeValue(null, "name"));
+						} else if (ln.equals("import")) {
+							String location = r.getAttributeValue(null, "location");
+							if (location != null) {
+								File imported = new File(wsdl.getParentFile(), location);
+								if (imported.isFile()) {
+									add(imported);
+								} else {
+									logger.debug(String.format("%s: imported file %s not found", wsdl, imported));
+								}
+							}
+						}
+					} else if ((event == XMLStreamConstants.END_ELEMENT) && r.getLocalName().equals("partnerLinkType")) {
+						partnerLinkType = null;
+					}
+				}
+			} finally {
+				r.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	boolean containsPartnerLinkType(String partnerLinkType) {
+		return roles.containsKey(partnerLinkType);
+	}
+
+	/**
+	 * @return true if the partner link type declares the role
+	 */
+	boolean hasRole(String partnerLinkType, String role) {
+		Set<String> r = roles.get(partnerLinkType);
+		return (r != null) && r.contains(role);
+	}
+
+}
@@ -18,6 +18,9 @@ public class CommunicationConstructLabel extends Label {
 	private String operation = null;
 	private String name = null;
 
+	// id of the (role, partnerLinkType, operation) triple in the LabelDictionary
+	private final int id;
+
 	private CommunicationConstructLabel(PartnerLink pl, Operation op, boolean useMyRole, String name) {
 		this.name = name;
 
@@ -39,6 +42,37 @@ public class CommunicationConstructLabel extends Label {
 			logger.fatal("operation is null");
 		// Operation does NOT state namespace, we'll just rely on the name
 		this.operation = op.getName();
+
+		this.id = LabelDictionary.getId(this.role, this.partnerLinkType, this.operation);
+	}
+
+	/**
+	 * Creates a label without BPEL model, e.g., when a serialized process tree is read
+	 */
+	public CommunicationConstructLabel(String role, String partnerLinkType, String operation) {
+		this.role = role;
+		this.partnerLinkType = partnerLinkType;
+		this.operation = operation;
+		this.id = LabelDictionary.getId(this.role, this.partnerLinkType, this.operation);
+	}
+
+	public String getRole() {
+		return role;
+	}
+
+	public String getPartnerLinkType() {
+		return partnerLinkType;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the id of the label in the LabelDictionary. Equal labels have equal ids.
+	 */
+	public int getId() {
+		return id;
 	}
 
 	public CommunicationConstructLabel(OnMessage om) {
@@ -52,10 +86,7 @@ public class CommunicationConstructLabel extends Label {
 
 	public boolean equals(Object o) {
 		if (o instanceof CommunicationConstructLabel) {
-			CommunicationConstructLabel l2 = (CommunicationConstructLabel) o;
-			return (this.role.equals(l2.role) &&
-					this.partnerLinkType.equals(partnerLinkType) &&
-					this.operation.equals(operation));
+			return (this.id == ((CommunicationConstructLabel) o).id);
 		} else {
 			return false;
 		}
@@ -63,15 +94,7 @@ public class CommunicationConstructLabel extends Label {
 
 	@Override
 	public int hashCode() {
-		if (role == null) {
-			return 0;
-		} else {
-			int roleHash = role.hashCode();
-			int pltHash = partnerLinkType.hashCode();
-			int opHash = operation.hashCode();
-			//logger.debug(String.format("%x/%x/%x", roleHash, pltHash, opHash));
-			return (roleHash + pltHash + opHash);
-		}
+		return id;
 	}
 
 	public String toString() {
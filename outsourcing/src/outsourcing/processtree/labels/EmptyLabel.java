@@ -7,7 +7,7 @@ package outsourcing.processtree.labels;
  *
  */
 public class EmptyLabel extends Label {
-	private static EmptyLabel INSTANCE = null;
+	private final static EmptyLabel INSTANCE = new EmptyLabel();
 
 	@Override
 	public String toString() {
@@ -15,8 +15,6 @@ public class EmptyLabel extends Label {
 	}
 
 	public static Object getInstance() {
-		if (INSTANCE == null)
-			INSTANCE = new EmptyLabel();
 		return INSTANCE;
 	}
 }
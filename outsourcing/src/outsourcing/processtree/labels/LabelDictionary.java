@@ -0,0 +1,98 @@
+package outsourcing.processtree.labels;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global dictionary of communication labels
+ *
+ * Each distinct (role, partnerLinkType, operation) triple is mapped to a dense int id.
+ * Two CommunicationConstructLabels are equal iff their ids are equal. Thus, the comparison
+ * of processes only compares ints and does not hash or compare Strings.
+ *
+ * The ids are valid for the lifetime of the JVM. The dictionary only grows; its size is
+ * bounded by the number of distinct operations of all analyzed processes. There is no way to
+ * shrink it, since the ids are stored in the labels and nodes of all trees.
+ *
+ * Unlike the node ids (see CompactTree), the dictionary is static, global state: the ids of two
+ * trees are only comparable if they come from the same dictionary, and trees of different
+ * repositories, loaders and process tree files are compared with each other.
+ *
+ * Thread-safe: processes may be loaded concurrently. Lookups of known labels do not lock.
+ * The first lookups of a new label take a lock shared by all threads of the JVM (see getId()).
+ */
+public final class LabelDictionary {
+
+	private static final ConcurrentHashMap<Key, Integer> ids = new ConcurrentHashMap<Key, Integer>();
+	private static final AtomicInteger nextId = new AtomicInteger(0);
+
+	private static final class Key {
+		private final String role;
+		private final String partnerLinkType;
+		private final String operation;
+		private final int hash;
+
+		Key(String role, String partnerLinkType, String operation) {
+			this.role = role;
+			this.partnerLinkType = partnerLinkType;
+			this.operation = operation;
+			this.hash = (hash(role) * 31 + hash(partnerLinkType)) * 31 + hash(operation);
+		}
+
+		private static int hash(String s) {
+			return (s == null) ? 0 : s.hashCode();
+		}
+
+		private static boolean eq(String s1, String s2) {
+			return (s1 == null) ? (s2 == null) : s1.equals(s2);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return ((hash == k.hash) && eq(role, k.role) && eq(partnerLinkType, k.partnerLinkType) && eq(operation, k.operation));
+		}
+	}
+
+	private LabelDictionary() {
+	}
+
+	/**
+	 * Interns the given triple
+	 *
+	 * Threads loading processes concurrently serialize on the global lock while they look up labels
+	 * which are not contained yet, i.e., at most once per thread and distinct label.
+	 *
+	 * @return the id of the triple. Equal triples get the same id.
+	 */
+	public static int getId(String role, String partnerLinkType, String operation) {
+		Key key = new Key(role, partnerLinkType, operation);
+		Integer id = ids.get(key);
+		if (id == null) {
+			// rare case: new label. Synchronized to keep the ids dense
+			synchronized (ids) {
+				id = ids.get(key);
+				if (id == null) {
+					id = nextId.getAndIncrement();
+					ids.put(key, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @return an upper bound for all ids handed out so far
+	 */
+	public static int getIdBound() {
+		return nextId.get();
+	}
+
+}
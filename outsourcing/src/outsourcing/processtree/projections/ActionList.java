@@ -82,24 +82,34 @@ public class ActionList {
 	}
 
 
+	/**
+	 * @return the DOM element of the node, null if the node has no BPEL element (e.g., aggregated on a view, see Projections.performOnView())
+	 */
+	private static Element getElement(Node node) {
+		if (node.getBPELel() == null) {
+			return null;
+		}
+		return node.getBPELel().getElement();
+	}
+
 	public Boolean hide(Node node) {
-		Element el = node.getBPELel().getElement();
-		return toHide.contains(el);
+		Element el = getElement(node);
+		return (el != null) && toHide.contains(el);
 	}
 
 	public boolean omit(Node node) {
-		Element el = node.getBPELel().getElement();
-		return toOmit.contains(el);
+		Element el = getElement(node);
+		return (el != null) && toOmit.contains(el);
 	}
 
 	public boolean aggregate(Node node) {
-		Element el = node.getBPELel().getElement();
-		return toAggregate_nameToAcivitiyXML.containsKey(el);
+		Element el = getElement(node);
+		return (el != null) && toAggregate_nameToAcivitiyXML.containsKey(el);
 	}
 
 	public String getAggregateForNode(Node node) {
-		Element el = node.getBPELel().getElement();
-		return toAggregate_nameToAcivitiyXML.get(el);
+		Element el = getElement(node);
+		return (el == null) ? null : toAggregate_nameToAcivitiyXML.get(el);
 	}
 
 }
@@ -2,7 +2,10 @@ package outsourcing.processtree.projections;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -12,14 +15,17 @@ import org.eclipse.bpel.model.Activity;
 import org.eclipse.bpel.model.BPELFactory;
 import org.eclipse.bpel.model.Invoke;
 import org.eclipse.bpel.model.PartnerActivity;
+import org.eclipse.bpel.model.PartnerLink;
+import org.eclipse.bpel.model.PartnerLinks;
 import org.eclipse.bpel.model.Process;
 import org.eclipse.bpel.model.Receive;
 import org.eclipse.bpel.model.Scope;
 import org.eclipse.bpel.model.Sequence;
+import org.eclipse.bpel.model.partnerlinktype.Role;
 import org.eclipse.bpel.model.resource.LineCapturingDOMParser;
 import org.eclipse.emf.ecore.EObject;
+import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.graph.SimpleDirectedGraph;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
@@ -27,6 +33,8 @@ import org.xml.sax.SAXException;
 import outsourcing.MyBPELReader;
 import outsourcing.processtree.Node;
 import outsourcing.processtree.ProcessTree;
+import outsourcing.processtree.Type;
+import outsourcing.processtree.labels.CommunicationConstructLabel;
 
 public class Projections {
 	private static Logger logger = Logger.getLogger(Projections.class);
@@ -38,6 +46,38 @@ public class Projections {
 
 	private DOMParser db;
 
+	// the document of the BPEL process the aggregated activities are adopted to
+	private Document ownerDocument = null;
+
+	/**
+	 * An activity inserted by aggregate(). The node of the activity is created by resolveAggregations().
+	 */
+	private static class Aggregation {
+		private final PartnerActivity activity;
+		// the node replaced by the activity
+		private final Node aggregated;
+		// keeps the position of the node of the activity in the tree
+		private final Node placeholder;
+
+		Aggregation(PartnerActivity activity, Node aggregated, Node placeholder) {
+			this.activity = activity;
+			this.aggregated = aggregated;
+			this.placeholder = placeholder;
+		}
+	}
+
+	// the aggregations performed by the current traversal, resolved by resolveAggregations() afterwards
+	private final List<Aggregation> aggregations = new ArrayList<Aggregation>();
+
+	// the sequences inserted into the scopes (or the process) by aggregate()
+	private final Map<EObject, Sequence> insertedSequences = new HashMap<EObject, Sequence>();
+
+	// true: pt is a view (see ProcessTree.createView()). Neither the base tree nor the BPEL model may be changed.
+	private final boolean onView;
+
+	// see setBatchAggregations()
+	private boolean batchAggregations = true;
+
 	/**
 	 * The implementation of the DFS uses recursive method calling
 	 * For large PSTs this could break. Let's see, when this is the case
@@ -46,8 +86,18 @@ public class Projections {
 	 * @param act - The projection actions to perform
 	 */
 	public Projections(ProcessTree pt, ActionList act) {
+		this(pt, act, false);
+	}
+
+	private Projections(ProcessTree pt, ActionList act, boolean onView) {
 		this.pt = pt;
 		this.act = act;
+		this.onView = onView;
+
+		if (onView) {
+			// aggregated activities are not inserted into the BPEL model, thus BPELReader is not needed
+			return;
+		}
 
 		/*
 		 * we have to convert the XML to a BPEL activity
@@ -64,6 +114,31 @@ public class Projections {
 		r.read(pt.getBPELresource(), (Document) null);
 }
 
+	/**
+	 * Performs the projections on a view of base (see ProcessTree.createView())
+	 *
+	 * Neither base nor its BPEL model are changed. Thus, a process can be projected by several action lists
+	 * without reloading it. The partner links of aggregated activities are resolved by name in the enclosing scopes.
+	 *
+	 * @param base the tree to project. Its BPEL model is required.
+	 * @param act the projection actions to perform. Created for the BPEL resource of base.
+	 * @return the projected view. Its process type has to be determined.
+	 */
+	public static ProcessTree performOnView(ProcessTree base, ActionList act) {
+		Projections projections = new Projections(base.createView(), act, true);
+		projections.perform();
+		return projections.pt;
+	}
+
+	/**
+	 * @param batchAggregations true (default): the activities inserted by aggregations are resolved by one pass2()
+	 *        of BPELReader after the traversal. false: each activity is resolved by its own pass2() right after it
+	 *        has been inserted. Both give the same tree, the latter takes one pass over the process per aggregation.
+	 */
+	public void setBatchAggregations(boolean batchAggregations) {
+		this.batchAggregations = batchAggregations;
+	}
+
 	/**
 	 * @note Implementation follows Alex' description
 	 */
@@ -79,6 +154,10 @@ public class Projections {
 
 		Node root = pt.getRoot();
 		visit(root, true);
+
+		if (!aggregations.isEmpty()) {
+			resolveAggregations();
+		}
 	}
 
 	/**
@@ -179,24 +258,21 @@ public class Projections {
 
 		String XML = act.getAggregateForNode(n);
 
-		Document doc;
-		org.xml.sax.InputSource inStream = new org.xml.sax.InputSource();
-		inStream.setCharacterStream(new java.io.StringReader(XML));
-		// we have to use the same DOM parser as BPELReader does. In that way the parsed XML node can be adopted to the DOM node tree of the BPEL process
-		db = new LineCapturingDOMParser();
-		try {
-			db.parse(inStream);
-			doc = db.getDocument();
-		} catch (Exception e) {
-			logger.error("Could not parse XML String " + XML, e);
-			throw new IllegalStateException(e);
+		if (onView) {
+			Node newN = createAggregatedNode(n, XML);
+			if (newN != null) {
+				pt.getTree().addEdge(pre, newN);
+			}
+			return;
 		}
 
 		// DocumentElement is NOT from the DOM of BPEL
 		// this causes problems when adding it to the BPEL model
 		// we have to adopt the node to the tree
-		Element newActivityElement = doc.getDocumentElement();
-		Document ownerDocument = this.pt.getBPELresource().getProcess().getElement().getOwnerDocument();
+		Element newActivityElement = parse(XML);
+		if (ownerDocument == null) {
+			ownerDocument = this.pt.getBPELresource().getProcess().getElement().getOwnerDocument();
+		}
 		org.w3c.dom.Node node = ownerDocument.adoptNode(newActivityElement);
 		newActivityElement = (Element) node;
 
@@ -216,50 +292,161 @@ public class Projections {
 	    // We do a really, really ugly hack here.
 	    // We do NOT change the BPEL process in the way the projection demands it, but just the way that a resolution of partnerlink and variable is possible
 
-	    Sequence seq = BPELFactory.eINSTANCE.createSequence();
-
 	    EObject el = n.getBPELel();
 	    // go up the hierarchy until we hit a scope or a process. Here pls and vars are declared
 	    while (!(el instanceof Scope) && !(el instanceof Process)) {
 	    	el = el.eContainer();
 	    }
-	    // replace child activity of scope/process by sequence of that child activity and the newly generated one
-	    Activity oldChildActivity;
-	    if (el instanceof Scope) {
-	    	Scope sc = (Scope) el;
-	    	oldChildActivity = sc.getActivity();
-	    	sc.setActivity(seq);
-	    } else {
-	    	Process pr = (Process) el;
-	    	oldChildActivity = pr.getActivity();
-	    	pr.setActivity(seq);
+	    // replace child activity of scope/process by sequence of that child activity and the newly generated ones
+	    // the sequence is created at the first aggregation within the scope/process
+	    Sequence seq = insertedSequences.get(el);
+	    if (seq == null) {
+	    	seq = BPELFactory.eINSTANCE.createSequence();
+	    	Activity oldChildActivity;
+	    	if (el instanceof Scope) {
+	    		Scope sc = (Scope) el;
+	    		oldChildActivity = sc.getActivity();
+	    		sc.setActivity(seq);
+	    	} else {
+	    		Process pr = (Process) el;
+	    		oldChildActivity = pr.getActivity();
+	    		pr.setActivity(seq);
+	    	}
+	    	seq.getActivities().add(oldChildActivity);
+	    	insertedSequences.put(el, seq);
 	    }
-	    seq.getActivities().add(oldChildActivity);
 	    seq.getActivities().add(a);
 
+	    // partnerLinks and variables are resolved for all aggregations at once (see resolveAggregations())
+	    // until then, a placeholder keeps the position of the new node: it has to count as child when the remaining nodes are visited
+	    Node placeholder = new Node(a, Type.OTHER, n.getMult(), n.getRank(), n.getLevel());
+	    pt.getTree().addVertex(placeholder);
+	    pt.getTree().addEdge(pre, placeholder);
+	    aggregations.add(new Aggregation(a, n, placeholder));
+	    if (!batchAggregations) {
+	    	resolveAggregations();
+	    }
+	}
 
+	/**
+	 * Resolves the partner links and variables of all activities inserted by aggregate() by one pass2() of BPELReader
+	 * and replaces the placeholders by the nodes of the activities
+	 */
+	private void resolveAggregations() {
 	    // resolve partnerLinks and variables
 	    r.pass2();
 
 	    // restore old state of process not needed as we do not work further w/ the BPEL process
 
 
-	    /** add node to process Tree **/
+	    /** add nodes to process Tree **/
 
-	    Node newN = new Node(a, n.getMult(), n.getRank(), n.getLevel());
+	    for (Aggregation ag: aggregations) {
+	    	PartnerActivity a = ag.activity;
+	    	Node n = ag.aggregated;
+	    	Node newN = new Node(a, n.getMult(), n.getRank(), n.getLevel());
 
-	    // add to appropriate fields in tree
-	    if (a instanceof Invoke) {
-	    	pt.addAsInvoke(newN);
-	    } else if (a instanceof Receive) {
-	    	pt.addAsReceive(newN);
-	    } else {
-	    	// assert: Reply
-	    	pt.addAsReply(newN);
+	    	// put to the position of the placeholder and add to appropriate fields in tree
+	    	pt.replaceNode(ag.placeholder, newN);
+	    	if (a instanceof Invoke) {
+	    		pt.addAsInvoke(newN);
+	    	} else if (a instanceof Receive) {
+	    		pt.addAsReceive(newN);
+	    	} else {
+	    		// assert: Reply
+	    		pt.addAsReply(newN);
+	    	}
 	    }
+	    aggregations.clear();
+	}
+
+	/**
+	 * Parses the XML of an aggregated activity. All aggregations share one parser.
+	 *
+	 * @throws IllegalStateException() if XML given in the projection file is invalid
+	 */
+	private Element parse(String XML) {
+		org.xml.sax.InputSource inStream = new org.xml.sax.InputSource();
+		inStream.setCharacterStream(new java.io.StringReader(XML));
+		// we have to use the same DOM parser as BPELReader does. In that way the parsed XML node can be adopted to the DOM node tree of the BPEL process
+		if (db == null) {
+			db = new LineCapturingDOMParser();
+		}
+		try {
+			db.parse(inStream);
+			return db.getDocument().getDocumentElement();
+		} catch (Exception e) {
+			logger.error("Could not parse XML String " + XML, e);
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates the node of the activity aggregating n without changing the BPEL model and adds it to the fields of the tree
+	 *
+	 * The label is the one CommunicationConstructLabel determines for the activity after pass2() of BPELReader:
+	 * the partner link is looked up by name in the scopes enclosing n.
+	 *
+	 * @return the new node, null if the activity cannot be resolved
+	 * @throws IllegalStateException() if XML given in the projection file is invalid
+	 */
+	private Node createAggregatedNode(Node n, String XML) {
+		Element el = parse(XML);
+
+		String kind = el.getLocalName();
+		boolean isInvoke = "invoke".equals(kind);
+		boolean isReceive = "receive".equals(kind);
+		if (!isInvoke && !isReceive && !"reply".equals(kind)) {
+			logger.error("Error during BPEL parsing of new XML");
+			logger.error(XML);
+			return null;
+		}
 
-	    // link node to parent of oldNode
-	    pt.getTree().addEdge(pre, newN);
+		PartnerLink pl = findPartnerLink(n.getBPELel(), el.getAttribute("partnerLink"));
+		if ((pl == null) || (pl.getPartnerLinkType() == null)) {
+			logger.error(String.format("Could not resolve partner link of new XML %s", XML));
+			return null;
+		}
+		// same role as CommunicationConstructLabel(PartnerActivity)
+		Role role = isReceive ? pl.getMyRole() : pl.getPartnerRole();
+		if (role == null) {
+			logger.error(String.format("Could not resolve role of new XML %s", XML));
+			return null;
+		}
+		CommunicationConstructLabel label = new CommunicationConstructLabel(role.getName(), pl.getPartnerLinkType().getName(), el.getAttribute("operation"));
+
+		Node newN = Node.fromLabel(label, Type.BASIC, n.getMult(), n.getRank(), n.getLevel());
+		if (isInvoke) {
+			pt.addAsInvoke(newN);
+		} else if (isReceive) {
+			pt.addAsReceive(newN);
+		} else {
+			pt.addAsReply(newN);
+		}
+		return newN;
+	}
+
+	/**
+	 * @return the partner link with the given name declared in the innermost scope (or process) enclosing el, null if there is none
+	 */
+	private static PartnerLink findPartnerLink(EObject el, String name) {
+		while (el != null) {
+			PartnerLinks pls = null;
+			if (el instanceof Scope) {
+				pls = ((Scope) el).getPartnerLinks();
+			} else if (el instanceof Process) {
+				pls = ((Process) el).getPartnerLinks();
+			}
+			if (pls != null) {
+				for (PartnerLink pl: pls.getChildren()) {
+					if (name.equals(pl.getName())) {
+						return pl;
+					}
+				}
+			}
+			el = el.eContainer();
+		}
+		return null;
 	}
 
 	/**
@@ -269,7 +456,7 @@ public class Projections {
 	private void remove(Node n) {
 		logger.debug(String.format("Removing %s", n));
 
-		SimpleDirectedGraph<Node, DefaultEdge> tree = this.pt.getTree();
+		DirectedGraph<Node, DefaultEdge> tree = this.pt.getTree();
 
 		// determine parent and child
 		Set<DefaultEdge> in = this.pt.getTree().incomingEdgesOf(n);
@@ -2,14 +2,54 @@ package outsourcing.test;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.bpel.model.Activity;
+import org.eclipse.bpel.model.resource.BPELResource;
 import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
 
 import outsourcing.Main;
+import outsourcing.ProcessRepository;
+import outsourcing.ProcessRepository.MatchResult;
+import outsourcing.ResultCache;
+import outsourcing.SimilarityMatrixWriter;
+import outsourcing.WsdlCache;
+import outsourcing.processtree.BPELStreamReader;
+import outsourcing.processtree.Comparator;
+import outsourcing.processtree.Constants;
+import outsourcing.processtree.ComparatorCache;
+import outsourcing.processtree.Mult;
+import outsourcing.processtree.Node;
+import outsourcing.processtree.Operation;
+import outsourcing.processtree.ProcessTree;
+import outsourcing.processtree.ProcessTreeFile;
+import outsourcing.processtree.Type;
+import outsourcing.processtree.Comparator.MetricResult;
+import outsourcing.processtree.labels.CommunicationConstructLabel;
+import outsourcing.processtree.labels.EmptyLabel;
+import outsourcing.processtree.projections.ActionList;
+import outsourcing.processtree.projections.Projections;
 
 public class Helper {
 
+	// tolerance for comparing the degrees of inexact matching
+	private final static double DELTA = 1e-9;
+
 	static void testProcess(String fn) throws Exception {
 		testProcesses(fn, fn);
 	}
@@ -41,4 +81,625 @@ public class Helper {
 		m.analyzeProcesses(uri1, uri2, f1, f2);
 	}
 
+	static void testRepository(String consumerFn, String... providerFns) throws Exception {
+		URI consumer = URI.createFileURI(new File(consumerFn).getAbsolutePath().toString());
+		List<URI> providers = new ArrayList<URI>();
+		for (String fn: providerFns) {
+			providers.add(URI.createFileURI(new File(fn).getAbsolutePath().toString()));
+		}
+		Main m = new Main();
+		m.analyzeRepository(consumer, providers);
+	}
+
+	static void testSimilarityIndex(double minM2, String... fns) throws Exception {
+		List<URI> processes = new ArrayList<URI>();
+		for (String fn: fns) {
+			processes.add(URI.createFileURI(new File(fn).getAbsolutePath().toString()));
+		}
+		Main m = new Main();
+		m.evaluateSimilarityIndex(processes, minM2);
+	}
+
+	static void testProcessesWithResultCache(String fn1, String fn2) throws Exception {
+		URI uri1 = URI.createFileURI(new File(fn1).getAbsolutePath().toString());
+		URI uri2 = URI.createFileURI(new File(fn2).getAbsolutePath().toString());
+		File cacheFile = File.createTempFile("results", ".cache");
+		try {
+			ResultCache cache = new ResultCache(cacheFile);
+			Main m = new Main();
+			// the first run adds the result, the second one uses it
+			m.analyzeProcesses(uri1, uri2, null, null, cache);
+			assertEquals(1, cache.getMissCount());
+			assertEquals(0, cache.getHitCount());
+			m.analyzeProcesses(uri1, uri2, null, null, cache);
+			assertEquals(1, cache.getMissCount());
+			assertEquals(1, cache.getHitCount());
+			cache.close();
+
+			ProcessRepository repository = new ProcessRepository();
+			ProcessTree pt1;
+			ProcessTree pt2;
+			try {
+				repository.add(uri1);
+				repository.add(uri2);
+				pt1 = repository.getProvider(0);
+				pt2 = repository.getProvider(1);
+			} finally {
+				repository.shutdown();
+			}
+			MetricResult expected = pt1.getDegreeOfInexactMatching(pt2);
+
+			cache = new ResultCache(cacheFile);
+			try {
+				assertEquals(1, cache.size());
+				ResultCache.Entry entry = cache.get(ResultCache.key(new File(fn1), new File(fn2), null, null));
+				assertNotNull(entry);
+				assertEquals(pt1.matchesExactly(pt2), entry.exact);
+				assertEquals(pt1.isPluginForProcessTree(pt2), entry.p1PluginForP2);
+				assertEquals(pt2.isPluginForProcessTree(pt1), entry.p2PluginForP1);
+				assertEquals(expected.M1, entry.degree.M1, 0.0);
+				assertEquals(expected.M2, entry.degree.M2, 0.0);
+				assertEquals(expected.MI1, entry.degree.MI1, 0.0);
+				assertEquals(expected.MI2, entry.degree.MI2, 0.0);
+			} finally {
+				cache.close();
+			}
+		} finally {
+			cacheFile.delete();
+		}
+	}
+
+	/**
+	 * Checks that an incomplete or damaged record at the end of a result cache is dropped and the records before
+	 * it survive. A file of another format is not touched.
+	 */
+	static void testResultCacheWithDamagedTail() throws Exception {
+		File cacheFile = File.createTempFile("results", ".cache");
+		try {
+			byte[][] keys = new byte[3][32];
+			ResultCache cache = new ResultCache(cacheFile);
+			long headerLength = cacheFile.length();
+			for (int i = 0; i < keys.length; i++) {
+				Arrays.fill(keys[i], (byte) i);
+				MetricResult degree = new MetricResult();
+				degree.M1 = i;
+				degree.M2 = i + 0.25;
+				degree.MI1 = i + 0.5;
+				degree.MI2 = i + 0.75;
+				cache.put(keys[i], new ResultCache.Entry(i == 0, i == 1, i == 2, degree));
+			}
+			cache.close();
+			long recordLength = (cacheFile.length() - headerLength) / keys.length;
+
+			// incomplete record
+			RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+			raf.seek(raf.length());
+			raf.write(new byte[(int) recordLength / 2]);
+			raf.close();
+			cache = new ResultCache(cacheFile);
+			assertEquals(3, cache.size());
+			cache.close();
+			assertEquals(headerLength + 3 * recordLength, cacheFile.length());
+
+			// damaged last record
+			raf = new RandomAccessFile(cacheFile, "rw");
+			raf.seek(headerLength + 2 * recordLength + 40);
+			raf.write(0xFF);
+			raf.close();
+			cache = new ResultCache(cacheFile);
+			try {
+				assertEquals(2, cache.size());
+				assertNull(cache.get(keys[2]));
+				for (int i = 0; i < 2; i++) {
+					ResultCache.Entry entry = cache.get(keys[i]);
+					assertEquals(i == 0, entry.exact);
+					assertEquals(i == 1, entry.p1PluginForP2);
+					assertFalse(entry.p2PluginForP1);
+					assertEquals(i, entry.degree.M1, 0.0);
+					assertEquals(i + 0.25, entry.degree.M2, 0.0);
+					assertEquals(i + 0.5, entry.degree.MI1, 0.0);
+					assertEquals(i + 0.75, entry.degree.MI2, 0.0);
+				}
+			} finally {
+				cache.close();
+			}
+			assertEquals(headerLength + 2 * recordLength, cacheFile.length());
+
+			// another format version
+			raf = new RandomAccessFile(cacheFile, "rw");
+			raf.seek(4);
+			raf.writeInt(Integer.MAX_VALUE);
+			raf.close();
+			try {
+				new ResultCache(cacheFile);
+				fail("file of another version opened");
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(headerLength + 2 * recordLength, cacheFile.length());
+		} finally {
+			cacheFile.delete();
+		}
+	}
+
+	/**
+	 * Checks that the trees built by BPELStreamReader equal the ones built from the EMF model
+	 */
+	static void testStreamReader(String... fns) throws Exception {
+		ProcessRepository repository = new ProcessRepository();
+		try {
+			for (String fn: fns) {
+				repository.add(URI.createFileURI(new File(fn).getAbsolutePath().toString()));
+				repository.addBPEL(new File(fn));
+			}
+			assertEquals(2 * fns.length, repository.size());
+			for (int i = 0; i < fns.length; i++) {
+				ProcessTree fromModel = repository.getProvider(2 * i);
+				ProcessTree fromStream = repository.getProvider(2 * i + 1);
+				assertEquals(fns[i], fromModel.getFingerprint(), fromStream.getFingerprint());
+				assertTrue(fns[i], fromModel.matchesExactly(fromStream));
+			}
+		} finally {
+			repository.shutdown();
+		}
+	}
+
+	/**
+	 * Checks the relation of two basic activities of the tree built by BPELStreamReader
+	 *
+	 * @param activity1 partner link type and operation of the first activity, e.g., "choicePLT/choice1"
+	 */
+	static void testRelation(String fn, String activity1, String activity2, Operation expected) throws Exception {
+		ProcessTree pt = BPELStreamReader.read(new File(fn), false);
+		pt.determineProcesType();
+		assertEquals(String.format("%s %s", activity1, activity2), expected, pt.getProcessType().getRelation(findActivity(pt, activity1), findActivity(pt, activity2)));
+	}
+
+	private static Node findActivity(ProcessTree pt, String activity) {
+		for (Node n: pt.getAllBasicNonSilentActivies()) {
+			CommunicationConstructLabel label = (CommunicationConstructLabel) n.getLabel();
+			if (activity.equals(label.getPartnerLinkType() + "/" + label.getOperation())) {
+				return n;
+			}
+		}
+		fail(activity + " not found");
+		return null;
+	}
+
+	/**
+	 * Checks the process types (by their fingerprints) and the degrees of inexact matching of two processes
+	 *
+	 * The expected values have been determined before the link induced relations were computed transitively (LinkAnalysis).
+	 */
+	static void testProcessType(String fn1, String fn2, long fingerprint1, long fingerprint2, double m1, double m2, double mi1, double mi2) throws Exception {
+		ProcessRepository repository = new ProcessRepository();
+		try {
+			repository.add(URI.createFileURI(new File(fn1).getAbsolutePath().toString()));
+			repository.add(URI.createFileURI(new File(fn2).getAbsolutePath().toString()));
+			ProcessTree pt1 = repository.getProvider(0);
+			ProcessTree pt2 = repository.getProvider(1);
+			assertEquals(fingerprint1, pt1.getFingerprint());
+			assertEquals(fingerprint2, pt2.getFingerprint());
+
+			MetricResult res = pt1.getDegreeOfInexactMatching(pt2);
+			assertEquals(m1, res.M1, DELTA);
+			assertEquals(m2, res.M2, DELTA);
+			assertEquals(mi1, res.MI1, DELTA);
+			assertEquals(mi2, res.MI2, DELTA);
+		} finally {
+			repository.shutdown();
+		}
+	}
+
+	/**
+	 * Checks matchTopK() against an exhaustive comparison for each k, each process being the consumer
+	 *
+	 * Each process is added twice. Thus, there are ties at every threshold.
+	 */
+	static void testTopK(String... fns) throws Exception {
+		ProcessRepository repository = new ProcessRepository();
+		try {
+			for (String fn: fns) {
+				repository.addBPEL(new File(fn));
+				repository.addBPEL(new File(fn));
+			}
+			int n = repository.size();
+			for (int c = 0; c < n; c += 2) {
+				ProcessTree consumer = repository.getProvider(c);
+
+				// exhaustive: all providers by decreasing MI2. The sort is stable, equal providers keep the order they have been added.
+				final double[] mi2 = new double[n];
+				Integer[] expected = new Integer[n];
+				for (int p = 0; p < n; p++) {
+					mi2[p] = new Comparator(consumer, repository.getProvider(p)).getDegreeOfInexactMatching().MI2;
+					expected[p] = p;
+				}
+				Arrays.sort(expected, new java.util.Comparator<Integer>() {
+					@Override
+					public int compare(Integer p1, Integer p2) {
+						return Double.compare(mi2[p2], mi2[p1]);
+					}
+				});
+
+				for (int k = 1; k <= n; k++) {
+					List<MatchResult> top = repository.matchTopK(consumer, k, 0);
+					assertEquals(k, top.size());
+					for (int i = 0; i < k; i++) {
+						assertSame(repository.getProvider(expected[i]), top.get(i).provider);
+						assertEquals(mi2[expected[i]], top.get(i).degree.MI2, DELTA);
+					}
+				}
+			}
+		} finally {
+			repository.shutdown();
+		}
+	}
+
+	/**
+	 * Checks the similarity matrix (CSV) against a Comparator for each ordered pair of processes
+	 *
+	 * Each process is added twice. Thus, the matrix spans more than one band of tiles.
+	 */
+	static void testSimilarityMatrix(String... fns) throws Exception {
+		ProcessRepository repository = new ProcessRepository();
+		try {
+			for (String fn: fns) {
+				repository.addBPEL(new File(fn));
+				repository.addBPEL(new File(fn));
+			}
+			int n = repository.size();
+			StringWriter w = new StringWriter();
+			repository.computeSimilarityMatrix(SimilarityMatrixWriter.csv(w));
+
+			boolean[][] written = new boolean[n][n];
+			BufferedReader in = new BufferedReader(new StringReader(w.toString()));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("#") || line.startsWith("i,")) {
+					continue;
+				}
+				String[] fields = line.split(",");
+				int i = Integer.parseInt(fields[0]);
+				int j = Integer.parseInt(fields[1]);
+				assertFalse(String.format("(%d, %d) written twice", i, j), written[i][j]);
+				written[i][j] = true;
+
+				MetricResult expected = new Comparator(repository.getProvider(i), repository.getProvider(j)).getDegreeOfInexactMatching();
+				assertEquals(expected.M1, Double.parseDouble(fields[2]), 0.0);
+				assertEquals(expected.M2, Double.parseDouble(fields[3]), 0.0);
+				assertEquals(expected.MI1, Double.parseDouble(fields[4]), 0.0);
+				assertEquals(expected.MI2, Double.parseDouble(fields[5]), 0.0);
+			}
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					assertTrue(String.format("(%d, %d) missing", i, j), written[i][j]);
+				}
+			}
+		} finally {
+			repository.shutdown();
+		}
+	}
+
+	/**
+	 * Writes each tree to a process tree file and reads it back. Then, damages the stored fingerprint
+	 */
+	static void testProcessTreeFile(String... fns) throws Exception {
+		for (String fn: fns) {
+			ProcessTree pt = BPELStreamReader.read(new File(fn), false);
+			pt.determineProcesType();
+
+			File file = File.createTempFile("tree", ".pt");
+			try {
+				ProcessTreeFile.write(pt, file);
+				ProcessTree read = ProcessTreeFile.read(file);
+				assertEquals(fn, pt.toString(), read.toString());
+				assertEquals(fn, pt.getFingerprint(), read.getFingerprint());
+				Node[] basicNodes = byIndex(pt);
+				Node[] readBasicNodes = byIndex(read);
+				assertEquals(fn, basicNodes.length, readBasicNodes.length);
+				for (int i = 0; i < basicNodes.length; i++) {
+					assertEquals(fn, basicNodes[i].toString(), readBasicNodes[i].toString());
+					for (int j = 0; j < basicNodes.length; j++) {
+						assertEquals(fn, pt.getProcessType().getRelation(basicNodes[i], basicNodes[j]), read.getProcessType().getRelation(readBasicNodes[i], readBasicNodes[j]));
+					}
+				}
+
+				// the fingerprint is the only occurrence of its eight bytes in the file
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					byte[] content = new byte[(int) raf.length()];
+					raf.readFully(content);
+					ByteBuffer b = ByteBuffer.wrap(content);
+					int pos = 0;
+					while (b.getLong(pos) != pt.getFingerprint()) {
+						pos++;
+					}
+					raf.seek(pos);
+					raf.writeLong(pt.getFingerprint() + 1);
+				} finally {
+					raf.close();
+				}
+				try {
+					ProcessTreeFile.read(file);
+					fail(fn + ": stale fingerprint accepted");
+				} catch (IOException e) {
+					// expected
+				}
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	private static Node[] byIndex(ProcessTree pt) {
+		Node[] res = new Node[pt.getAllBasicNonSilentActivies().size()];
+		for (Node n: pt.getAllBasicNonSilentActivies()) {
+			res[n.getIndex()] = n;
+		}
+		return res;
+	}
+
+	/**
+	 * Checks the hit, miss, eviction and collected counts of a ComparatorCache
+	 */
+	static void testComparatorCache(String fn1, String fn2, String fn3) throws Exception {
+		ProcessTree pt1 = BPELStreamReader.read(new File(fn1), false);
+		ProcessTree pt2 = BPELStreamReader.read(new File(fn2), false);
+		ProcessTree pt3 = BPELStreamReader.read(new File(fn3), false);
+		pt1.determineProcesType();
+		pt2.determineProcesType();
+		pt3.determineProcesType();
+
+		// the cache of a tree is used by matchesExactly() if the fingerprints are equal
+		ProcessTree copy = BPELStreamReader.read(new File(fn1), false);
+		copy.determineProcesType();
+		assertTrue(pt1.matchesExactly(copy));
+		assertTrue(pt1.matchesExactly(copy));
+		assertEquals(1, pt1.getComparatorCache().getMissCount());
+		assertEquals(1, pt1.getComparatorCache().getHitCount());
+
+		ComparatorCache cache = new ComparatorCache(2);
+		Comparator comp12 = new Comparator(pt1, pt2);
+		Comparator comp13 = new Comparator(pt1, pt3);
+		cache.put(pt2, comp12);
+		cache.put(pt3, comp13);
+		assertSame(comp12, cache.get(pt2));
+		assertNull(cache.get(pt1));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// pt3 is the least recently used entry
+		cache.put(pt1, new Comparator(pt1, pt1));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertNull(cache.get(pt3));
+		assertSame(comp12, cache.get(pt2));
+		cache.setCapacity(1);
+		assertEquals(2, cache.getEvictionCount());
+		assertEquals(1, cache.size());
+
+		// the Comparator does not reference the key, thus the key is only weakly reachable
+		cache.setCapacity(2);
+		cache.put(BPELStreamReader.read(new File(fn3), false), comp13);
+		assertEquals(2, cache.size());
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((cache.getCollectedCount() == 0) && (System.currentTimeMillis() < deadline)) {
+			System.gc();
+			Thread.sleep(10);
+			cache.size();
+		}
+		assertEquals(1, cache.getCollectedCount());
+		assertEquals(1, cache.size());
+		assertSame(comp12, cache.get(pt2));
+	}
+
+	/**
+	 * Loads processes importing the same WSDL file. The file has to be parsed once.
+	 */
+	static void testWsdlCache(String... fns) throws Exception {
+		WsdlCache cache = new WsdlCache();
+		ProcessRepository repository = new ProcessRepository(false, 1, cache);
+		try {
+			for (String fn: fns) {
+				repository.add(URI.createFileURI(new File(fn).getAbsolutePath().toString()));
+			}
+			assertEquals(fns.length, repository.size());
+			assertEquals(1, cache.getMisses());
+			assertTrue(cache.getHits() >= fns.length - 1);
+		} finally {
+			repository.shutdown();
+		}
+	}
+
+	/**
+	 * Checks that each mutator of a frozen tree throws and the tree is left unchanged
+	 */
+	static void testFreeze(String fn) throws Exception {
+		final ProcessTree pt = BPELStreamReader.read(new File(fn), false);
+		pt.determineProcesType();
+		pt.freeze();
+		assertTrue(pt.isFrozen());
+		String before = pt.toString();
+		long fingerprint = pt.getFingerprint();
+
+		final Node root = pt.getRoot();
+		final Node[] basicNodes = pt.getBasicNodes();
+		assertTrue(basicNodes.length >= 2);
+		final Node basic = basicNodes[0];
+		final Node newNode = Node.fromLabel(new EmptyLabel(), Type.OTHER, Mult.ONE, 1, 1);
+
+		Map<String, Runnable> illegalState = new LinkedHashMap<String, Runnable>();
+		illegalState.put("removeNode", new Runnable() {
+			public void run() {
+				pt.removeNode(basic);
+			}
+		});
+		illegalState.put("removeAllNodes", new Runnable() {
+			public void run() {
+				pt.removeAllNodes(Collections.<Node>emptySet());
+			}
+		});
+		illegalState.put("replaceNode", new Runnable() {
+			public void run() {
+				pt.replaceNode(root, newNode);
+			}
+		});
+		illegalState.put("addAsInvoke", new Runnable() {
+			public void run() {
+				pt.addAsInvoke(newNode);
+			}
+		});
+		illegalState.put("addAsReceive", new Runnable() {
+			public void run() {
+				pt.addAsReceive(newNode);
+			}
+		});
+		illegalState.put("addAsReply", new Runnable() {
+			public void run() {
+				pt.addAsReply(newNode);
+			}
+		});
+		illegalState.put("determineProcesType", new Runnable() {
+			public void run() {
+				pt.determineProcesType();
+			}
+		});
+		illegalState.put("getTree().addVertex", new Runnable() {
+			public void run() {
+				pt.getTree().addVertex(newNode);
+			}
+		});
+		illegalState.put("getTree().addEdge", new Runnable() {
+			public void run() {
+				pt.getTree().addEdge(basic, root);
+			}
+		});
+		illegalState.put("getTree().removeEdge", new Runnable() {
+			public void run() {
+				pt.getTree().removeEdge(pt.getTree().incomingEdgesOf(basic).iterator().next());
+			}
+		});
+		illegalState.put("getTree().removeVertex", new Runnable() {
+			public void run() {
+				pt.getTree().removeVertex(basic);
+			}
+		});
+		illegalState.put("getProcessType().setRelation", new Runnable() {
+			public void run() {
+				pt.getProcessType().setRelation(basicNodes[0], basicNodes[1], Operation.P1);
+			}
+		});
+		for (Map.Entry<String, Runnable> e: illegalState.entrySet()) {
+			try {
+				e.getValue().run();
+				fail(e.getKey() + " modified a frozen tree");
+			} catch (IllegalStateException ex) {
+				// expected
+			}
+		}
+
+		List<Set<Node>> sets = Arrays.asList(pt.getAllBasicNonSilentActivies(), pt.getInvokeActivities(), pt.getReceiveActivies(), pt.getReplyActivies());
+		for (Set<Node> set: sets) {
+			try {
+				set.add(newNode);
+				fail("a set of activities of a frozen tree has been modified");
+			} catch (UnsupportedOperationException ex) {
+				// expected
+			}
+			try {
+				set.clear();
+				if (!set.isEmpty()) {
+					fail("a set of activities of a frozen tree has been cleared");
+				}
+			} catch (UnsupportedOperationException ex) {
+				// expected
+			}
+		}
+
+		assertEquals(before, pt.toString());
+		assertEquals(fingerprint, pt.getFingerprint());
+		assertEquals(basicNodes.length, pt.getAllBasicNonSilentActivies().size());
+	}
+
+	/**
+	 * Projects a view of a process. Checks that neither the base tree nor the BPEL model are changed and that the
+	 * view gets the same process type as the projection of a freshly loaded copy.
+	 */
+	static void testProjectionOnView(String procFn, String projFn) throws Exception {
+		URI uri = URI.createFileURI(new File(procFn).getAbsolutePath().toString());
+		File projection = new File(projFn).getAbsoluteFile();
+
+		BPELResource r = loadProcess(uri);
+		ProcessTree base = new ProcessTree(r);
+		String baseTree = base.toString();
+		List<String> baseModel = describeActivities(r);
+
+		ProcessTree view = Projections.performOnView(base, new ActionList(projection, r));
+		view.determineProcesType();
+		assertEquals(baseTree, base.toString());
+		assertEquals(baseModel, describeActivities(r));
+
+		// the base can be projected again
+		ProcessTree view2 = Projections.performOnView(base, new ActionList(projection, r));
+		view2.determineProcesType();
+		assertEquals(view.getFingerprint(), view2.getFingerprint());
+		assertEquals(baseTree, base.toString());
+
+		BPELResource copy = loadProcess(uri);
+		ProcessTree projected = new ProcessTree(copy);
+		new Projections(projected, new ActionList(projection, copy)).perform();
+		projected.determineProcesType();
+		assertEquals(projected.getFingerprint(), view.getFingerprint());
+		assertTrue(projected.matchesExactly(view));
+		assertEquals(projected.getAllBasicNonSilentActivies().size(), view.getAllBasicNonSilentActivies().size());
+	}
+
+	private static BPELResource loadProcess(URI uri) {
+		// each call loads the process again: the resource set is not shared
+		return (BPELResource) Main.getWsdlCache().createResourceSet().getResource(uri, true);
+	}
+
+	/**
+	 * @return type, name and status attribute of each activity of the BPEL model, in document order
+	 */
+	private static List<String> describeActivities(BPELResource r) {
+		List<String> res = new ArrayList<String>();
+		for (Iterator<EObject> it = r.getAllContents(); it.hasNext(); ) {
+			EObject o = it.next();
+			if (o instanceof Activity) {
+				Activity a = (Activity) o;
+				String status = a.getElement().getAttributeNS(Constants.NS_ESOURCING, Constants.ATTR_STATUS);
+				res.add(String.format("%s %s %s", a.eClass().getName(), a.getName(), status));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Checks that resolving all aggregated activities by one pass2() gives the same tree as resolving each
+	 * activity on its own
+	 */
+	static void testBatchedAggregations(String procFn, String projFn) throws Exception {
+		URI uri = URI.createFileURI(new File(procFn).getAbsolutePath().toString());
+		File projection = new File(projFn).getAbsoluteFile();
+
+		BPELResource r1 = loadProcess(uri);
+		ProcessTree batched = new ProcessTree(r1);
+		new Projections(batched, new ActionList(projection, r1)).perform();
+		batched.determineProcesType();
+
+		BPELResource r2 = loadProcess(uri);
+		ProcessTree single = new ProcessTree(r2);
+		Projections projections = new Projections(single, new ActionList(projection, r2));
+		projections.setBatchAggregations(false);
+		projections.perform();
+		single.determineProcesType();
+
+		// the debug strings of the nodes contain their labels
+		assertEquals(single.toString(), batched.toString());
+		assertEquals(single.getFingerprint(), batched.getFingerprint());
+		assertTrue(single.matchesExactly(batched));
+		assertEquals(describeActivities(r2), describeActivities(r1));
+	}
+
 }
@@ -13,4 +13,15 @@ public class TestCrossWorkCaseStudy {
 	public void TestP1projection2() throws Exception {
 		Helper.testProcessWithProjection("CrossWorkCaseStudy/OEM/OEMProcessView.bpel", "CrossWorkCaseStudy/ClusterB/ClusterBProcessView.bpel");
 	}
+
+	@Test
+	public void TestProcessTypeOEMWithClusterA() throws Exception {
+		Helper.testProcessType("CrossWorkCaseStudy/OEM/OEMProcessView.bpel", "CrossWorkCaseStudy/ClusterA/ClusterAProcessView.bpel", 0x77ef5d99ad964412L, 0xe806883974ad09e9L, 1.0, 0.7, 1.0, 0.7);
+	}
+
+	@Test
+	public void TestProcessTypeOEMWithClusterB() throws Exception {
+		Helper.testProcessType("CrossWorkCaseStudy/OEM/OEMProcessView.bpel", "CrossWorkCaseStudy/ClusterB/ClusterBProcessView.bpel", 0x77ef5d99ad964412L, 0x7a7117f41f78d562L, 0.8636363636363636, 0.8636363636363636, 0.8636363636363636, 0.8636363636363636);
+	}
+
 }
@@ -19,4 +19,42 @@ public class TestEG2007Processes {
 		Helper.testProcesses("EG2007/Example/p1.bpel", "EG2007/Example/p2.bpel");
 	}
 
+	@Test
+	public void testMatchingPaperExampleWithResultCache() throws Exception {
+		Helper.testProcessesWithResultCache("EG2007/Example/Offer1.bpel", "EG2007/Example/Offer2.bpel");
+	}
+
+	@Test
+	public void testWsdlCachePaperExample() throws Exception {
+		// both offers import partner.wsdl only
+		Helper.testWsdlCache("EG2007/Example/Offer1.bpel", "EG2007/Example/Offer2.bpel");
+	}
+
+	@Test
+	public void testResultCacheWithDamagedTail() throws Exception {
+		Helper.testResultCacheWithDamagedTail();
+	}
+
+	@Test
+	public void testProcessTypePaperExample() throws Exception {
+		Helper.testProcessType("EG2007/Example/Offer1.bpel", "EG2007/Example/Offer2.bpel", 0x1af8c034be4298b5L, 0xc65a0916e8d6973fL, 0.3333333333333333, 0.2608695652173913, 0.3333333333333333, 0.2608695652173913);
+	}
+
+	@Test
+	public void testProcessTypePaperExampleRequest() throws Exception {
+		Helper.testProcessType("EG2007/Example/RequestedWatertankProduction.bpel", "EG2007/Example/Offer1.bpel", 0xe0dc442754b41a67L, 0x1af8c034be4298b5L, 0.8, 0.6, 0.8, 0.6);
+	}
+
+	@Test
+	public void testProcessTypePaperFigure2() throws Exception {
+		// both processes contain links
+		Helper.testProcessType("EG2007/Figure2/p1.bpel", "EG2007/Figure2/p2.bpel", 0xd70fdd9406f1efd3L, 0xca74049e25e4e41cL, 0.6666666666666666, 0.6666666666666666, 0.6666666666666666, 0.6666666666666666);
+		Helper.testProcessType("EG2007/Figure2/p2.bpel", "EG2007/Figure2/p1.bpel", 0xca74049e25e4e41cL, 0xd70fdd9406f1efd3L, 0.6666666666666666, 0.6666666666666666, 0.6666666666666666, 0.6666666666666666);
+	}
+
+	@Test
+	public void testProcessTypePaperFigure4() throws Exception {
+		Helper.testProcessType("EG2007/Figure4/p1.bpel", "EG2007/Figure4/p2.bpel", 0x22723e98d10e8f43L, 0xf6ae229ead369f6aL, 1.0, 0.3333333333333333, 1.0, 0.3333333333333333);
+	}
+
 }
@@ -14,4 +14,15 @@ public class TestEN2010Processes {
 		Helper.testProcessWithProjection("EN2010/Figure5/serviceConsumer.bpel", "EN2010/Figure5/projection.txt");
 	}
 
+	@Test
+	public void testProcessTypeEDOCPaperFigure2() throws Exception {
+		Helper.testProcessType("EN2010/Figure2/ProviderX.bpel", "EN2010/Figure2/consumer.bpel", 0xb74aaec5b51f40ffL, 0xb74aaec5b51f40ffL, 1.0, 1.0, 1.0, 1.0);
+	}
+
+	@Test
+	public void testProcessTypeEDOCPaperFigure5() throws Exception {
+		// links between structured activities
+		Helper.testProcessType("EN2010/Figure5/serviceConsumer.bpel", "EN2010/Figure5/serviceConsumer.bpel", 0xdbfb141be228dbcfL, 0xdbfb141be228dbcfL, 1.0, 1.0, 1.0, 1.0);
+	}
+
 }
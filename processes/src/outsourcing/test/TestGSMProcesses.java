@@ -14,4 +14,24 @@ public class TestGSMProcesses {
 		Helper.testProcessWithProjection("GSM/Figure2/consumerProcessView.bpel", "GSM/Figure4/providerProcessY.bpel");
 	}
 
+	@Test
+	public void TestMatchingConsumerWithRepository() throws Exception {
+		Helper.testRepository("GSM/Figure2/consumerProcessView.bpel", "GSM/Figure3/providerProcessX.bpel", "GSM/Figure4/providerProcessY.bpel");
+	}
+
+	@Test
+	public void TestSimilarityIndex() throws Exception {
+		Helper.testSimilarityIndex(0.5, "GSM/Figure2/consumerProcessView.bpel", "GSM/Figure3/providerProcessX.bpel", "GSM/Figure4/providerProcessY.bpel");
+	}
+
+	@Test
+	public void TestProcessTypeConsumerWithProviderX() throws Exception {
+		Helper.testProcessType("GSM/Figure2/consumerProcessView.bpel", "GSM/Figure3/providerProcessX.bpel", 0x0aa5f92bfbbdf127L, 0x95f205c53c4fc7a1L, 1.0, 0.38181818181818183, 1.0, 0.38181818181818183);
+	}
+
+	@Test
+	public void TestProcessTypeConsumerWithProviderY() throws Exception {
+		Helper.testProcessType("GSM/Figure2/consumerProcessView.bpel", "GSM/Figure4/providerProcessY.bpel", 0x0aa5f92bfbbdf127L, 0x4e0de390174661a0L, 1.0, 0.3488372093023256, 1.0, 0.3488372093023256);
+	}
+
 }
@@ -0,0 +1,59 @@
+package outsourcing.test;
+
+import org.junit.Test;
+
+public class TestProcessRepository {
+
+	// all bundled processes
+	static final String[] PROCESSES = {
+		"CrossWorkCaseStudy/ClusterA/ClusterAProcessView.bpel",
+		"CrossWorkCaseStudy/ClusterB/ClusterBProcessView.bpel",
+		"CrossWorkCaseStudy/OEM/OEMProcessView.bpel",
+		"EG2007/Example/Offer1.bpel",
+		"EG2007/Example/Offer2.bpel",
+		"EG2007/Example/RequestedWatertankProduction.bpel",
+		"EG2007/Figure2/p1.bpel",
+		"EG2007/Figure2/p2.bpel",
+		"EG2007/Figure4/p1.bpel",
+		"EG2007/Figure4/p2.bpel",
+		"EN2010/Figure2/ProviderX.bpel",
+		"EN2010/Figure2/consumer.bpel",
+		"EN2010/Figure5/serviceConsumer.bpel",
+		"GSM/Figure2/consumerProcessView.bpel",
+		"GSM/Figure3/providerProcessX.bpel",
+		"GSM/Figure4/providerProcessY.bpel",
+		"tests/p1.bpel",
+		"tests/p2.bpel"
+	};
+
+	@Test
+	public void testStreamReaderEqualsEMFModel() throws Exception {
+		Helper.testStreamReader(PROCESSES);
+	}
+
+	@Test
+	public void testTopKEqualsExhaustiveMatching() throws Exception {
+		Helper.testTopK(PROCESSES);
+	}
+
+	@Test
+	public void testSimilarityMatrixEqualsPairwiseMatching() throws Exception {
+		Helper.testSimilarityMatrix(PROCESSES);
+	}
+
+	@Test
+	public void testProcessTreeFileRoundTrip() throws Exception {
+		Helper.testProcessTreeFile(PROCESSES);
+	}
+
+	@Test
+	public void testComparatorCache() throws Exception {
+		Helper.testComparatorCache("GSM/Figure2/consumerProcessView.bpel", "GSM/Figure3/providerProcessX.bpel", "GSM/Figure4/providerProcessY.bpel");
+	}
+
+	@Test
+	public void testFrozenTreeCannotBeModified() throws Exception {
+		Helper.testFreeze("EG2007/Example/Offer1.bpel");
+	}
+
+}
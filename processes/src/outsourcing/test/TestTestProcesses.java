@@ -2,6 +2,8 @@ package outsourcing.test;
 
 import org.junit.Test;
 
+import outsourcing.processtree.Operation;
+
 public class TestTestProcesses {
 
 	@Test
@@ -13,4 +15,38 @@ public class TestTestProcesses {
 	public void TestP1projection2() throws Exception {
 		Helper.testProcessWithProjection("tests/p1.bpel", "tests/p1-projection2.txt");
 	}
+
+	@Test
+	public void TestP1projection3() throws Exception {
+		Helper.testProcessWithProjection("tests/p1.bpel", "tests/p1-projection3.txt");
+	}
+
+	@Test
+	public void TestP1projection3BatchedAggregations() throws Exception {
+		Helper.testBatchedAggregations("tests/p1.bpel", "tests/p1-projection3.txt");
+	}
+
+	@Test
+	public void TestP1projection3OnView() throws Exception {
+		Helper.testProjectionOnView("tests/p1.bpel", "tests/p1-projection3.txt");
+	}
+
+	@Test
+	public void TestP1projection1OnView() throws Exception {
+		Helper.testProjectionOnView("tests/p1.bpel", "tests/p1-projection1.txt");
+	}
+
+	@Test
+	public void TestP1projection2OnView() throws Exception {
+		Helper.testProjectionOnView("tests/p1.bpel", "tests/p1-projection2.txt");
+	}
+
+	@Test
+	public void TestP2nestedFlowsReusingLinkNames() throws Exception {
+		// link1 of Inner connects InvReceive and Choice1Receive, link1 of Outer ObsReceive and Choice2Receive
+		Helper.testRelation("tests/p2.bpel", "invokablePLT/op1", "choicePLT/choice1", Operation.S1);
+		Helper.testRelation("tests/p2.bpel", "observablePLT/op1", "choicePLT/choice2", Operation.S1);
+		Helper.testRelation("tests/p2.bpel", "invokablePLT/op1", "choicePLT/choice2", Operation.P1);
+		Helper.testRelation("tests/p2.bpel", "observablePLT/op1", "choicePLT/choice1", Operation.P1);
+	}
 }